@@ -0,0 +1,45 @@
+package org.warp.commonutils;
+
+import it.unimi.dsi.fastutil.ints.IntAVLTreeSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSet;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks once for every thread count between 1 and twice the available processors.
+ * <p>
+ * Usage: {@code mvn -Pbenchmarks test-compile exec:exec -Dbenchmarks.include=<regex>}
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : ".*";
+		for (int threads : threadCounts(Runtime.getRuntime().availableProcessors())) {
+			Options options = new OptionsBuilder()
+					.include(include)
+					.exclude(BenchmarkRunner.class.getSimpleName())
+					.threads(threads)
+					.result("target/jmh-result-" + threads + "t.json")
+					.resultFormat(ResultFormatType.JSON)
+					.build();
+			new Runner(options).run();
+		}
+	}
+
+	/**
+	 * @return powers of two from 1 up to {@code 2 * cores}, plus {@code cores} and {@code 2 * cores} themselves
+	 */
+	static IntSortedSet threadCounts(int cores) {
+		int max = cores * 2;
+		IntSortedSet counts = new IntAVLTreeSet();
+		for (int i = 1; i <= max; i <<= 1) {
+			counts.add(i);
+		}
+		counts.add(cores);
+		counts.add(max);
+		return counts;
+	}
+}
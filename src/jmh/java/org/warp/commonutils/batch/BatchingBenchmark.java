@@ -0,0 +1,76 @@
+package org.warp.commonutils.batch;
+
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.objects.ObjectList;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.lang3.tuple.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchingBenchmark {
+
+	private static final byte[] VALUE = new byte[16];
+
+	private KVSafeBatching<Long, byte[]> pairBatching;
+	private Long2ObjectColumnarBatching<byte[]> columnarBatching;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		pairBatching = new KVSafeBatching<>(1000, BatchFlushPolicy.maxItems(1024)) {
+			@Override
+			protected void executeBatch(Collection<Pair<Long, byte[]>> actions) {
+				blackhole.consume(actions.size());
+			}
+
+			@Override
+			protected double ping() {
+				return 1;
+			}
+		};
+		columnarBatching = new Long2ObjectColumnarBatching<>(1000, BatchFlushPolicy.maxItems(1024)) {
+			@Override
+			protected void executeBatch(LongList keys, ObjectList<byte[]> values) {
+				blackhole.consume(keys.size());
+			}
+
+			@Override
+			protected double ping() {
+				return 1;
+			}
+		};
+	}
+
+	@TearDown
+	public void tearDown() {
+		pairBatching.close();
+		columnarBatching.close();
+	}
+
+	@Benchmark
+	public void pairOffer() {
+		pairBatching.offer(ThreadLocalRandom.current().nextLong(), VALUE);
+	}
+
+	@Benchmark
+	public void columnarOffer() {
+		columnarBatching.offer(ThreadLocalRandom.current().nextLong(), VALUE);
+	}
+}
@@ -0,0 +1,93 @@
+package org.warp.commonutils.concurrency.executor;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.warp.commonutils.type.ShortNamedThreadFactory;
+
+/**
+ * Measures the submission cost of small tasks on {@link BlockingOnFullQueueExecutorServiceDecorator},
+ * {@link LockFreeBoundedExecutorServiceDecorator} and the work-stealing executor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoundedExecutorServiceBenchmark {
+
+	@Param({"1024"})
+	public int maxQueueSize;
+
+	@Param({"4"})
+	public int corePoolSize;
+
+	@Param({"true", "false"})
+	public boolean withStatusCallback;
+
+	@Param({"blocking", "lockFree", "workStealing"})
+	public String implementation;
+
+	private BoundedExecutorService executor;
+
+	@Setup
+	public void setup() {
+		var queueSizeStatus = withStatusCallback ? (BiConsumer<Boolean, Integer>) (full, size) -> {} : null;
+		switch (implementation) {
+			case "blocking":
+				executor = BoundedExecutorService.create(maxQueueSize,
+						corePoolSize,
+						0L,
+						TimeUnit.MILLISECONDS,
+						new ShortNamedThreadFactory("benchmark"),
+						queueSizeStatus
+				);
+				break;
+			case "lockFree":
+				executor = BoundedExecutorService.createLockFree(maxQueueSize,
+						corePoolSize,
+						0L,
+						TimeUnit.MILLISECONDS,
+						new ShortNamedThreadFactory("benchmark"),
+						Duration.ofDays(1),
+						queueSizeStatus
+				);
+				break;
+			case "workStealing":
+				executor = BoundedExecutorService.createWorkStealing(maxQueueSize,
+						corePoolSize,
+						"benchmark",
+						Duration.ofDays(1),
+						queueSizeStatus
+				);
+				break;
+			default:
+				throw new IllegalArgumentException(implementation);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	@Benchmark
+	public void execute() {
+		executor.execute(() -> Blackhole.consumeCPU(64));
+	}
+}
@@ -0,0 +1,51 @@
+package org.warp.commonutils.concurrency.executor;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the key registries used by the per-key executors, without executing any task
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrencySegmentBenchmark {
+
+	@Param({"SYNCHRONIZED", "POOLED_LOCK_FREE"})
+	public ConcurrencySegmentType segmentType;
+
+	/**
+	 * Number of distinct keys: 1 means every thread shares the same entry
+	 */
+	@Param({"1", "1024"})
+	public int keySpace;
+
+	private ConcurrencySegment<Integer, ReadWriteExecutor> segment;
+
+	@Setup
+	public void setup() {
+		segment = ConcurrencySegment.create(segmentType, ReadWriteExecutor::new);
+	}
+
+	@Benchmark
+	public Object getAndRelease() {
+		Integer key = ThreadLocalRandom.current().nextInt(keySpace);
+		ReadWriteExecutor value = segment.getValue(key);
+		segment.releaseKey(key);
+		return value;
+	}
+}
@@ -0,0 +1,82 @@
+package org.warp.commonutils.concurrency.executor;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.warp.commonutils.concurrency.executor.ReadWriteExecutor.LockMode;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PerKeyExecutorBenchmark {
+
+	/**
+	 * Number of distinct keys: 1 means every thread contends on the same key
+	 */
+	@Param({"1", "1024"})
+	public int keySpace;
+
+	@Param({"32"})
+	public int concurrencyLevel;
+
+	@Param({"SYNCHRONIZED", "POOLED_LOCK_FREE"})
+	public ConcurrencySegmentType segmentType;
+
+	private PerKeyReadWriteExecutor<Integer> readWriteExecutor;
+	private PerKeySynchronizedExecutor<Integer> synchronizedExecutor;
+
+	@Setup
+	public void setup() {
+		readWriteExecutor = new PerKeyReadWriteExecutor<>(concurrencyLevel, segmentType);
+		synchronizedExecutor = new PerKeySynchronizedExecutor<>(concurrencyLevel, segmentType);
+	}
+
+	@TearDown
+	public void tearDown() {
+		readWriteExecutor.close();
+		synchronizedExecutor.close();
+	}
+
+	private Integer randomKey() {
+		return ThreadLocalRandom.current().nextInt(keySpace);
+	}
+
+	@Benchmark
+	public Object readWriteExecutorRead(Blackhole blackhole) {
+		return readWriteExecutor.execute(randomKey(), LockMode.READ, () -> {
+			Blackhole.consumeCPU(16);
+			return blackhole;
+		});
+	}
+
+	@Benchmark
+	public Object readWriteExecutorWrite(Blackhole blackhole) {
+		return readWriteExecutor.execute(randomKey(), LockMode.WRITE, () -> {
+			Blackhole.consumeCPU(16);
+			return blackhole;
+		});
+	}
+
+	@Benchmark
+	public Object synchronizedExecutor(Blackhole blackhole) {
+		return synchronizedExecutor.execute(randomKey(), () -> {
+			Blackhole.consumeCPU(16);
+			return blackhole;
+		});
+	}
+}
@@ -0,0 +1,53 @@
+package org.warp.commonutils.locks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LeftRightLockBenchmark {
+
+	private final LeftRightLock lock = new LeftRightLock();
+
+	@State(Scope.Thread)
+	public static class Side {
+
+		boolean right;
+
+		@Setup
+		public void setup(ThreadParams threadParams) {
+			right = threadParams.getThreadIndex() % 2 == 1;
+		}
+	}
+
+	@Benchmark
+	public void sameSide() {
+		lock.lockLeft();
+		lock.releaseLeft();
+	}
+
+	@Benchmark
+	public void alternatingSides(Side side) {
+		if (side.right) {
+			lock.lockRight();
+			lock.releaseRight();
+		} else {
+			lock.lockLeft();
+			lock.releaseLeft();
+		}
+	}
+}
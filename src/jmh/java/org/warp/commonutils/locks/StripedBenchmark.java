@@ -0,0 +1,87 @@
+package org.warp.commonutils.locks;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StripedBenchmark {
+
+	@Param({"16", "1024"})
+	public int stripes;
+
+	@Param({"1024"})
+	public int keySpace;
+
+	private Striped<Lock> eagerLocks;
+	private Striped<Lock> lazyWeakLocks;
+	private Striped<ReadWriteLock> readWriteLocks;
+
+	@Setup
+	public void setup() {
+		eagerLocks = Striped.lock(stripes);
+		lazyWeakLocks = Striped.lazyWeakLock(stripes);
+		readWriteLocks = Striped.readWriteLock(stripes);
+	}
+
+	private Integer randomKey() {
+		return ThreadLocalRandom.current().nextInt(keySpace);
+	}
+
+	@Benchmark
+	public void eagerLock() {
+		Lock lock = eagerLocks.get(randomKey());
+		lock.lock();
+		lock.unlock();
+	}
+
+	@Benchmark
+	public void lazyWeakLock() {
+		Lock lock = lazyWeakLocks.get(randomKey());
+		lock.lock();
+		lock.unlock();
+	}
+
+	@Benchmark
+	public void readLock() {
+		Lock lock = readWriteLocks.get(randomKey()).readLock();
+		lock.lock();
+		lock.unlock();
+	}
+
+	@Benchmark
+	public void writeLock() {
+		Lock lock = readWriteLocks.get(randomKey()).writeLock();
+		lock.lock();
+		lock.unlock();
+	}
+
+	@Benchmark
+	public void bulkLock() {
+		Iterable<Lock> locks = eagerLocks.bulkGet(List.of(randomKey(), randomKey(), randomKey(), randomKey()));
+		for (Lock lock : locks) {
+			lock.lock();
+		}
+		for (Lock lock : locks) {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.warp.commonutils.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+	private static final String[] DETAILS = {"a", "b", "c", "d"};
+
+	private AtomicTimeIncrementalSamples incrementalSamples;
+	private AtomicTimeAbsoluteSamples absoluteSamples;
+	private AtomicDetailedTimeIncrementalSamples<String> detailedIncrementalSamples;
+	private AtomicDetailedTimeAbsoluteSamples<String> detailedAbsoluteSamples;
+
+	@Setup
+	public void setup() {
+		incrementalSamples = new AtomicTimeIncrementalSamples(100, 60);
+		absoluteSamples = new AtomicTimeAbsoluteSamples(100, 60);
+		detailedIncrementalSamples = new AtomicDetailedTimeIncrementalSamples<>(100, 60);
+		detailedAbsoluteSamples = new AtomicDetailedTimeAbsoluteSamples<>(100, 60);
+	}
+
+	private static String randomDetail() {
+		return DETAILS[ThreadLocalRandom.current().nextInt(DETAILS.length)];
+	}
+
+	@Benchmark
+	public void incrementalIncrement() {
+		incrementalSamples.increment(1);
+	}
+
+	@Benchmark
+	public double incrementalRead() {
+		return incrementalSamples.getAveragePerSecond(1000);
+	}
+
+	@Benchmark
+	public void absoluteSet() {
+		absoluteSamples.set(ThreadLocalRandom.current().nextInt(1000));
+	}
+
+	@Benchmark
+	public void detailedIncrementalIncrement() {
+		detailedIncrementalSamples.increment(randomDetail(), 1);
+	}
+
+	@Benchmark
+	public void detailedAbsoluteSet() {
+		detailedAbsoluteSamples.set(randomDetail(), ThreadLocalRandom.current().nextInt(1000));
+	}
+
+	@Benchmark
+	public Object incrementalSnapshot() {
+		return incrementalSamples.snapshot();
+	}
+}
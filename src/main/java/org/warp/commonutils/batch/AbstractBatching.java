@@ -0,0 +1,490 @@
+package org.warp.commonutils.batch;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Engine shared by {@link Batching} and {@link ColumnarBatching}: it refreshes the ping, applies the
+ * {@link BackpressureStrategy}, asks the {@link BatchFlushPolicy} when to send the items, and completes the futures
+ * of the tracked items.
+ * <p>
+ * The subclasses own the storage of the items. Producers append the items to it without locks, after
+ * {@link #beginAppend(int)} has admitted them, and the sender drains them into the pending items with
+ * {@link #drainAppended()}, registering each one with {@link #addPending(long, long, BatchCompletion)}.
+ * The pending items are sent in FIFO order with {@link #executePending(int)}, outside any lock that the producers need.
+ *
+ * @param <V> type of the items estimated by the flush policy
+ */
+abstract class AbstractBatching<V> {
+
+	private final int pingRefreshTimeMillis;
+	private volatile double singleItemTransferTimeMillis;
+	private volatile double latencyMillis;
+	private final AtomicBoolean enablePacking = new AtomicBoolean(false);
+	private final AtomicBoolean closeRequested = new AtomicBoolean(false);
+	/**
+	 * Tracks the producers that are appending items, so that the final drain of {@link #close()} can't miss them
+	 */
+	private final StripedCloseGuard appendGuard = new StripedCloseGuard();
+	private final BatchingScheduler scheduler;
+	private BatchingScheduler.Registration<AbstractBatching<V>> registration;
+	private final LongAdder offeredItems = new LongAdder();
+	/**
+	 * Items sent by the sender. Written only by the sender
+	 */
+	private volatile long flushedItems;
+	private final double startTimeMillis = ((double) System.nanoTime()) / 1000000d;
+	private final BatchFlushPolicy<V> flushPolicy;
+
+	/**
+	 * Items accepted and not sent yet. Used only when {@link #maxPendingItems} is set
+	 */
+	private final AtomicInteger unsentItems = new AtomicInteger();
+	private final int maxPendingItems;
+	private final BackpressureStrategy backpressureStrategy;
+	private final ReentrantLock admissionLock = new ReentrantLock();
+	private final Condition pendingItemsSent = admissionLock.newCondition();
+	private final AtomicInteger blockedProducers = new AtomicInteger();
+	private final ConcurrentLinkedQueue<DeferredItems> deferredItems = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger deferredItemsCount = new AtomicInteger();
+	private final ReentrantLock deferredAdmissionLock = new ReentrantLock();
+
+	/**
+	 * Offer time, estimated size and completion of the items drained by the sender and not sent yet, in FIFO order.
+	 * Only one flush at a time accesses them
+	 */
+	private final ArrayList<BatchCompletion> pendingCompletions = new ArrayList<>();
+	private final LongArrayList pendingOfferTimes = new LongArrayList();
+	private final LongArrayList pendingSizes = new LongArrayList();
+	private long pendingBytes;
+	private final BatchingStatus status = new BatchingStatus();
+
+	AbstractBatching(int pingRefreshTimeMillis,
+			BatchFlushPolicy<V> flushPolicy,
+			int maxPendingItems,
+			BackpressureStrategy backpressureStrategy,
+			BatchingScheduler scheduler) {
+		if (maxPendingItems < 0) {
+			throw new IllegalArgumentException(String.format("At least zero pending items must be permitted, not '%d'", maxPendingItems));
+		}
+		this.pingRefreshTimeMillis = pingRefreshTimeMillis;
+		this.flushPolicy = flushPolicy;
+		this.maxPendingItems = maxPendingItems;
+		this.backpressureStrategy = backpressureStrategy;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Starts the sender. Called by the subclasses after their storage has been initialized
+	 */
+	final void start() {
+		refreshPing();
+
+		if (enablePacking.get()) {
+			this.registration = scheduler.register(pingRefreshTimeMillis,
+					this,
+					AbstractBatching::refreshPing,
+					AbstractBatching::flush,
+					AbstractBatching::onUntrackedFailure
+			);
+		}
+	}
+
+	private void refreshPing() {
+		double pingTime = ping();
+		this.latencyMillis = 0.9 * pingTime;
+		this.singleItemTransferTimeMillis = 0.1 * pingTime;
+		this.enablePacking.compareAndSet(false, latencyMillis > 0.1d);
+	}
+
+	/**
+	 * @return true if the items must be appended to the storage, false if they must be executed directly
+	 */
+	final boolean isPacking() {
+		return enablePacking.get();
+	}
+
+	protected abstract double ping();
+
+	/**
+	 * Called on the sender thread with the failures that no {@code offerAsync} future can observe: the failures of
+	 * the batches made only of untracked items, and the failures of {@link #ping()} and of the flush policy.
+	 * The sender keeps running after this method returns.
+	 * <p>
+	 * By default the failure is passed to the uncaught exception handler of the sender thread
+	 */
+	protected void onUntrackedFailure(Throwable ex) {
+		Thread thread = Thread.currentThread();
+		thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+	}
+
+	/**
+	 * Move the items appended by the producers to the pending items, calling
+	 * {@link #addPending(long, long, BatchCompletion)} for each one. Called only by the sender
+	 */
+	abstract void drainAppended();
+
+	/**
+	 * @return true if some appended items have not been drained yet. Called only by the sender
+	 */
+	abstract boolean hasAppended();
+
+	/**
+	 * Send the oldest {@code count} pending items with a single call. Called only by the sender
+	 */
+	abstract void executePending(int count);
+
+	/**
+	 * Remove the oldest {@code count} pending items. Called only by the sender, after {@link #executePending(int)}
+	 */
+	abstract void removePending(int count);
+
+	final long estimateSize(V item) {
+		return flushPolicy.estimateSize(item);
+	}
+
+	/**
+	 * Register a pending item, after its storage has appended it to its pending items
+	 *
+	 * @param size       estimated size of the item
+	 * @param offerNanos time at which the item has been appended
+	 */
+	final void addPending(long size, long offerNanos, @Nullable BatchCompletion completion) {
+		pendingCompletions.add(completion);
+		pendingOfferTimes.add(offerNanos);
+		pendingSizes.add(size);
+		pendingBytes += size;
+	}
+
+	/**
+	 * @return number of items accepted and not sent yet
+	 */
+	public int getPendingItems() {
+		if (maxPendingItems == 0) {
+			return (int) Math.max(0, offeredItems.sum() - flushedItems);
+		} else {
+			return unsentItems.get();
+		}
+	}
+
+	/**
+	 * @return number of items waiting to be accepted, with {@link BackpressureStrategy#ASYNC}
+	 */
+	public int getDeferredItems() {
+		return deferredItemsCount.get();
+	}
+
+	/**
+	 * Admits some items, applying the backpressure strategy. If it returns true, the caller must append the items and
+	 * then call {@link #endAppend()}
+	 *
+	 * @return false if the items must be deferred with {@link #defer(int, Runnable, CompletableFuture)}
+	 * @throws RejectedExecutionException if the items are rejected, or if this batcher is closed
+	 */
+	final boolean beginAppend(int count) {
+		if (!acquirePending(count)) {
+			return false;
+		}
+		if (!appendGuard.enter()) {
+			if (maxPendingItems != 0) {
+				unsentItems.addAndGet(-count);
+			}
+			throw closed();
+		}
+		offeredItems.add(count);
+		return true;
+	}
+
+	final void endAppend() {
+		appendGuard.exit();
+	}
+
+	/**
+	 * @return false if the items must be deferred
+	 * @throws RejectedExecutionException if the items are rejected
+	 */
+	private boolean acquirePending(int count) {
+		if (closeRequested.get()) {
+			throw closed();
+		}
+		if (maxPendingItems == 0) {
+			return true;
+		}
+		// Deferred items are accepted first, to keep the FIFO order
+		if (backpressureStrategy == BackpressureStrategy.ASYNC && !deferredItems.isEmpty()) {
+			return false;
+		}
+		if (tryAcquirePending(count)) {
+			return true;
+		}
+		switch (backpressureStrategy) {
+			case BLOCK:
+				awaitPending(count);
+				return true;
+			case FAIL_FAST:
+				throw new RejectedExecutionException(String.format("The batcher is full: %d pending items", unsentItems.get()));
+			case ASYNC:
+				return false;
+			default:
+				throw new UnsupportedOperationException("Unsupported backpressure strategy: " + backpressureStrategy);
+		}
+	}
+
+	private boolean tryAcquirePending(int count) {
+		while (true) {
+			int pending = unsentItems.get();
+			// A collection bigger than the limit is accepted only when nothing else is pending
+			if (pending > 0 && pending + count > maxPendingItems) {
+				return false;
+			}
+			if (unsentItems.compareAndSet(pending, pending + count)) {
+				return true;
+			}
+		}
+	}
+
+	private void awaitPending(int count) {
+		admissionLock.lock();
+		try {
+			// Registered before checking again, so that the sender can't miss this producer
+			blockedProducers.incrementAndGet();
+			try {
+				while (!tryAcquirePending(count)) {
+					if (closeRequested.get()) {
+						throw closed();
+					}
+					pendingItemsSent.await();
+				}
+			} finally {
+				blockedProducers.decrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException("Interrupted while waiting for the pending items to be sent", e);
+		} finally {
+			admissionLock.unlock();
+		}
+	}
+
+	/**
+	 * Called by the sender after some items have been sent
+	 */
+	private void releasePending(int count) {
+		flushedItems += count;
+		if (maxPendingItems == 0) {
+			return;
+		}
+		unsentItems.addAndGet(-count);
+		if (blockedProducers.get() > 0) {
+			admissionLock.lock();
+			try {
+				pendingItemsSent.signalAll();
+			} finally {
+				admissionLock.unlock();
+			}
+		}
+		acceptDeferred();
+	}
+
+	/**
+	 * Keep some items until they can be accepted
+	 *
+	 * @param append appends the items to the storage. It's called once, when the items are accepted
+	 * @param future completed when the items are accepted, if not null
+	 * @throws RejectedExecutionException if the deferred items would exceed {@link #maxPendingItems}, or if this
+	 *                                    batcher is closed
+	 */
+	final void defer(int count, Runnable append, @Nullable CompletableFuture<Void> future) {
+		if (!appendGuard.enter()) {
+			throw closed();
+		}
+		try {
+			reserveDeferred(count);
+			deferredItems.add(new DeferredItems(count, append, future));
+			// Accepted while inside the guard, so that the final drain of close() can't miss the accepted items
+			acceptDeferred();
+		} finally {
+			appendGuard.exit();
+		}
+	}
+
+	private void reserveDeferred(int count) {
+		while (true) {
+			int deferred = deferredItemsCount.get();
+			// Like the pending items, a collection bigger than the limit is deferred only when nothing else is
+			if (deferred > 0 && deferred + count > maxPendingItems) {
+				throw new RejectedExecutionException(String.format("The batcher is full: %d pending items and %d deferred items",
+						unsentItems.get(),
+						deferred
+				));
+			}
+			if (deferredItemsCount.compareAndSet(deferred, deferred + count)) {
+				return;
+			}
+		}
+	}
+
+	private void acceptDeferred() {
+		while (!deferredItems.isEmpty() && deferredAdmissionLock.tryLock()) {
+			try {
+				DeferredItems next;
+				while ((next = deferredItems.peek()) != null && tryAcquirePending(next.count)) {
+					deferredItems.poll();
+					deferredItemsCount.addAndGet(-next.count);
+					offeredItems.add(next.count);
+					next.append.run();
+					if (next.future != null) {
+						next.future.complete(null);
+					}
+				}
+			} finally {
+				deferredAdmissionLock.unlock();
+			}
+			// Checked after unlocking: items sent from now on will find the lock free and accept the deferred items
+			DeferredItems next = deferredItems.peek();
+			int pending = unsentItems.get();
+			if (next == null || (pending > 0 && pending + next.count > maxPendingItems)) {
+				return;
+			}
+		}
+	}
+
+	private RejectedExecutionException closed() {
+		return new RejectedExecutionException("The batcher is closed");
+	}
+
+	/**
+	 * Rejects new items, then sends the pending and deferred items and stops the scheduled tasks.
+	 * Items offered concurrently with this method are either sent or rejected. Producers blocked by
+	 * {@link BackpressureStrategy#BLOCK} are woken up and rejected.
+	 * <p>
+	 * Subclasses that override this method must call it. A batcher that is not closed stops its scheduled tasks
+	 * only after it becomes unreachable, losing the items that were not sent yet.
+	 */
+	public void close() {
+		if (!closeRequested.compareAndSet(false, true)) {
+			return;
+		}
+		// Wait for the producers that are appending items: the ones that come later see the close request
+		appendGuard.close();
+		if (registration != null) {
+			registration.close(this::sendAll);
+		}
+		admissionLock.lock();
+		try {
+			pendingItemsSent.signalAll();
+		} finally {
+			admissionLock.unlock();
+		}
+	}
+
+	/**
+	 * Send the batches allowed by the flush policy
+	 *
+	 * @return time to wait before the next flush, in nanoseconds
+	 */
+	private long flush() {
+		drainAppended();
+		while (!pendingOfferTimes.isEmpty() && flushPolicy.shouldFlush(updateStatus())) {
+			sendBatch();
+		}
+		return flushPolicy.checkIntervalNanos(updateStatus());
+	}
+
+	/**
+	 * Send every item, including the ones accepted from the deferred items while sending
+	 */
+	private void sendAll() {
+		drainAppended();
+		while (!pendingOfferTimes.isEmpty() || hasAppended() || !deferredItems.isEmpty()) {
+			if (!pendingOfferTimes.isEmpty()) {
+				sendBatch();
+			}
+			drainAppended();
+			if (pendingOfferTimes.isEmpty() && !hasAppended()) {
+				acceptDeferred();
+			}
+		}
+	}
+
+	/**
+	 * Send the oldest pending items, respecting the batch limits of the flush policy
+	 */
+	private void sendBatch() {
+		int maxItems = flushPolicy.maxBatchItems();
+		long maxBytes = flushPolicy.maxBatchBytes();
+		int count = 0;
+		long bytes = 0;
+		while (count < pendingSizes.size() && count < maxItems) {
+			long size = pendingSizes.getLong(count);
+			if (count > 0 && bytes + size > maxBytes) {
+				break;
+			}
+			bytes += size;
+			count++;
+		}
+		List<BatchCompletion> completions = pendingCompletions.subList(0, count);
+		try {
+			executePending(count);
+			for (BatchCompletion completion : completions) {
+				if (completion != null) {
+					completion.itemSent();
+				}
+			}
+		} catch (Throwable ex) {
+			boolean observed = false;
+			for (BatchCompletion completion : completions) {
+				if (completion != null) {
+					completion.completeExceptionally(ex);
+					observed = true;
+				}
+			}
+			// Nobody is tracking these items: report the failure without stopping the sender
+			if (!observed) {
+				onUntrackedFailure(ex);
+			}
+		} finally {
+			removePending(count);
+			completions.clear();
+			pendingOfferTimes.removeElements(0, count);
+			pendingSizes.removeElements(0, count);
+			pendingBytes -= bytes;
+			releasePending(count);
+		}
+	}
+
+	private BatchingStatus updateStatus() {
+		long now = System.nanoTime();
+		status.pendingItems = pendingOfferTimes.size();
+		status.pendingBytes = pendingBytes;
+		status.oldestItemAgeNanos = pendingOfferTimes.isEmpty() ? 0 : now - pendingOfferTimes.getLong(0);
+		status.latencyMillis = latencyMillis;
+		status.singleItemTransferTimeMillis = singleItemTransferTimeMillis;
+		status.offeredItemsPerMillis = offeredItems.sum() / Math.max(((double) now) / 1000000d - startTimeMillis, 1d);
+		status.closing = closeRequested.get();
+		return status;
+	}
+
+	private static final class DeferredItems {
+
+		private final int count;
+		private final Runnable append;
+		private final @Nullable CompletableFuture<Void> future;
+
+		private DeferredItems(int count, Runnable append, @Nullable CompletableFuture<Void> future) {
+			this.count = count;
+			this.append = append;
+			this.future = future;
+		}
+	}
+}
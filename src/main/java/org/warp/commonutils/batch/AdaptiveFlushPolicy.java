@@ -0,0 +1,74 @@
+package org.warp.commonutils.batch;
+
+/**
+ * Flushes when sending now is estimated to be faster, per item, than waiting for one more check interval.
+ * The estimates are derived from the ping of the backend.
+ */
+final class AdaptiveFlushPolicy<T> implements BatchFlushPolicy<T> {
+
+	@Override
+	public boolean shouldFlush(BatchingStatus status) {
+		if (status.getPendingItems() == 0) {
+			return false;
+		}
+		double latencyMillis = status.getLatencyMillis();
+		double singleItemTransferTimeMillis = status.getSingleItemTransferTimeMillis();
+		double waitTimeMillis = latencyMillis;
+		int waitingSize = status.getPendingItems();
+		double lostTime = ((double) status.getOldestItemAgeNanos()) / 1000000d;
+		double idealItemsPerMillis = status.getOfferedItemsPerMillis();
+		double idealMillisPerItem = 1d / notZero(idealItemsPerMillis);
+		double itemSendLongestTime = getItemSendLongestTime(lostTime, latencyMillis, waitingSize,
+				singleItemTransferTimeMillis);
+		double itemsPerSecond = getItemsPerSecond(waitingSize, itemSendLongestTime);
+		double averageItemTime = getAverageItemTime(waitingSize, itemSendLongestTime);
+		double nextItemSendLongestTime = getItemSendLongestTimeNext(lostTime, latencyMillis, waitTimeMillis,
+				waitingSize, singleItemTransferTimeMillis, idealItemsPerMillis);
+		double nextItemsPerSecond = getNextItemsPerSecond(waitingSize, nextItemSendLongestTime, waitTimeMillis,
+				idealItemsPerMillis);
+		double nextAverageItemTime = getNextAverageItemTime(waitingSize, itemSendLongestTime, waitTimeMillis,
+				idealItemsPerMillis);
+		boolean do1 = idealMillisPerItem > latencyMillis;
+		boolean do2 = itemsPerSecond > nextItemsPerSecond;
+		boolean do3 = averageItemTime - nextAverageItemTime < latencyMillis;
+		boolean do4 = averageItemTime > 5;
+		return do1 | do2 | do3 | do4;
+	}
+
+	private static double getItemSendLongestTime(double lostTime, double latencyMillis, double waitingSize,
+			double singleItemTransferTimeMillis) {
+		return lostTime + latencyMillis + waitingSize * singleItemTransferTimeMillis;
+	}
+
+	private static double getItemSendLongestTimeNext(double lostTime, double latencyMillis, double waitTime,
+			double waitingSize, double singleItemTransferTimeMillis, double itemsPerMillisecondIdeal) {
+		return lostTime + latencyMillis + waitTime + (waitingSize
+				+ (waitTime * itemsPerMillisecondIdeal) * singleItemTransferTimeMillis);
+	}
+
+	private static double getItemsPerSecond(double waitingSize, double itemSendLongestTime) {
+		return waitingSize / notZero(itemSendLongestTime);
+	}
+
+	private static double getAverageItemTime(double waitingSize, double itemSendLongestTime) {
+		return itemSendLongestTime / notZero(waitingSize);
+	}
+
+	private static double getNextItemsPerSecond(double waitingSize, double nextItemSendLongestTime, double waitTime,
+			double itemsPerMillisecondIdeal) {
+		return (waitingSize + (waitTime * itemsPerMillisecondIdeal)) / notZero(nextItemSendLongestTime);
+	}
+
+	private static double getNextAverageItemTime(double waitingSize, double nextItemSendLongestTime,
+			double waitTime, double itemsPerMillisecondIdeal) {
+		return nextItemSendLongestTime / notZero((waitingSize + (waitTime * itemsPerMillisecondIdeal)));
+	}
+
+	private static double notZero(double input) {
+		if (input != 0) {
+			return input;
+		} else {
+			return input + 0.000000000000000000001d;
+		}
+	}
+}
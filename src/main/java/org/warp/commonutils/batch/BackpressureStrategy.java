@@ -0,0 +1,22 @@
+package org.warp.commonutils.batch;
+
+/**
+ * Behavior of {@link Batching} when an offer would exceed the maximum number of pending items
+ */
+public enum BackpressureStrategy {
+	/**
+	 * Suspend the producer until enough pending items have been sent
+	 */
+	BLOCK,
+	/**
+	 * Reject the items with a {@link java.util.concurrent.RejectedExecutionException}
+	 */
+	FAIL_FAST,
+	/**
+	 * Keep the items in a deferred list, without suspending the producer, and accept them in FIFO order as soon as
+	 * enough pending items have been sent. The deferred list holds at most as many items as the pending ones: beyond
+	 * that, the items are rejected like with {@link #FAIL_FAST}. Producers should wait for the futures returned by
+	 * {@link Batching#enqueue(java.util.Collection)} to throttle themselves.
+	 */
+	ASYNC
+}
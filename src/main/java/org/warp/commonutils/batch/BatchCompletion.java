@@ -0,0 +1,29 @@
+package org.warp.commonutils.batch;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Future returned by {@link Batching#offerAsync(java.util.Collection)}.
+ * It completes when the last of its items has been sent, or fails with the first failure of a batch containing one of
+ * its items. The items can be split across more than one batch.
+ */
+final class BatchCompletion extends CompletableFuture<Void> {
+
+	/**
+	 * Accessed only by the sender thread
+	 */
+	private int remainingItems;
+
+	BatchCompletion(int items) {
+		this.remainingItems = items;
+		if (items == 0) {
+			complete(null);
+		}
+	}
+
+	void itemSent() {
+		if (--remainingItems == 0) {
+			complete(null);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package org.warp.commonutils.batch;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+
+/**
+ * Decides when the items waiting in a {@link Batching} are sent, and how big a single batch can be.
+ * <p>
+ * The sender checks {@link #shouldFlush(BatchingStatus)} after every {@link #checkIntervalNanos(BatchingStatus)},
+ * and while it returns true it sends batches of at most {@link #maxBatchItems()} items and at most
+ * {@link #maxBatchBytes()} bytes. A single item bigger than {@link #maxBatchBytes()} is sent alone.
+ * Policies can be combined with {@link #anyOf(BatchFlushPolicy[])}.
+ */
+public interface BatchFlushPolicy<T> {
+
+	/**
+	 * @return true if a batch must be sent now
+	 */
+	boolean shouldFlush(BatchingStatus status);
+
+	/**
+	 * @return time to wait before checking this policy again
+	 */
+	default long checkIntervalNanos(BatchingStatus status) {
+		return (long) (status.getLatencyMillis() * 1000000d);
+	}
+
+	/**
+	 * @return maximum number of items in a single batch
+	 */
+	default int maxBatchItems() {
+		return Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return maximum estimated size of a single batch
+	 */
+	default long maxBatchBytes() {
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return estimated size of an item, used to compute {@link BatchingStatus#getPendingBytes()}
+	 */
+	default long estimateSize(T item) {
+		return 0;
+	}
+
+	/**
+	 * Send batches of at most {@code maxItems} items, as soon as enough items are pending
+	 */
+	static <T> BatchFlushPolicy<T> maxItems(int maxItems) {
+		if (maxItems < 1) {
+			throw new IllegalArgumentException("maxItems must be positive");
+		}
+		return new BatchFlushPolicy<>() {
+			@Override
+			public boolean shouldFlush(BatchingStatus status) {
+				return status.getPendingItems() >= maxItems;
+			}
+
+			@Override
+			public int maxBatchItems() {
+				return maxItems;
+			}
+		};
+	}
+
+	/**
+	 * Send batches of at most {@code maxBytes} bytes, as soon as enough bytes are pending
+	 *
+	 * @param sizeEstimator estimated size of an item
+	 */
+	static <T> BatchFlushPolicy<T> maxBytes(long maxBytes, ToLongFunction<T> sizeEstimator) {
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("maxBytes must be positive");
+		}
+		return new BatchFlushPolicy<>() {
+			@Override
+			public boolean shouldFlush(BatchingStatus status) {
+				return status.getPendingBytes() >= maxBytes;
+			}
+
+			@Override
+			public long maxBatchBytes() {
+				return maxBytes;
+			}
+
+			@Override
+			public long estimateSize(T item) {
+				return sizeEstimator.applyAsLong(item);
+			}
+		};
+	}
+
+	/**
+	 * Send the pending items as soon as the oldest one has waited for {@code maxWait}
+	 */
+	static <T> BatchFlushPolicy<T> maxWait(Duration maxWait) {
+		long maxWaitNanos = maxWait.toNanos();
+		if (maxWaitNanos < 0) {
+			throw new IllegalArgumentException("maxWait must not be negative");
+		}
+		// A shorter interval would make the sender spin when the wait is zero or about to expire
+		long minCheckIntervalNanos = 100_000L;
+		return new BatchFlushPolicy<>() {
+			@Override
+			public boolean shouldFlush(BatchingStatus status) {
+				return status.getPendingItems() > 0 && status.getOldestItemAgeNanos() >= maxWaitNanos;
+			}
+
+			@Override
+			public long checkIntervalNanos(BatchingStatus status) {
+				if (status.getPendingItems() == 0) {
+					return Math.max(minCheckIntervalNanos, maxWaitNanos);
+				}
+				return Math.max(minCheckIntervalNanos, maxWaitNanos - status.getOldestItemAgeNanos());
+			}
+		};
+	}
+
+	/**
+	 * The default policy: trade latency for batch size based on the ping of the backend
+	 */
+	static <T> BatchFlushPolicy<T> adaptive() {
+		return new AdaptiveFlushPolicy<>();
+	}
+
+	/**
+	 * Send a batch when any of the policies requires it.
+	 * Batches respect the strictest limits, and the items size is the biggest estimate.
+	 */
+	@SafeVarargs
+	static <T> BatchFlushPolicy<T> anyOf(BatchFlushPolicy<T>... policies) {
+		if (policies.length == 0) {
+			throw new IllegalArgumentException("At least one policy is required");
+		}
+		// Copied element by element: passing the varargs array on would be reported as possible heap pollution
+		List<BatchFlushPolicy<T>> policyList = new ArrayList<>(policies.length);
+		for (BatchFlushPolicy<T> policy : policies) {
+			policyList.add(Objects.requireNonNull(policy));
+		}
+		int maxBatchItems = policyList.stream().mapToInt(BatchFlushPolicy::maxBatchItems).min().orElseThrow();
+		long maxBatchBytes = policyList.stream().mapToLong(BatchFlushPolicy::maxBatchBytes).min().orElseThrow();
+		return new BatchFlushPolicy<>() {
+			@Override
+			public boolean shouldFlush(BatchingStatus status) {
+				for (BatchFlushPolicy<T> policy : policyList) {
+					if (policy.shouldFlush(status)) {
+						return true;
+					}
+				}
+				return false;
+			}
+
+			@Override
+			public long checkIntervalNanos(BatchingStatus status) {
+				long interval = Long.MAX_VALUE;
+				for (BatchFlushPolicy<T> policy : policyList) {
+					interval = Math.min(interval, policy.checkIntervalNanos(status));
+				}
+				return interval;
+			}
+
+			@Override
+			public int maxBatchItems() {
+				return maxBatchItems;
+			}
+
+			@Override
+			public long maxBatchBytes() {
+				return maxBatchBytes;
+			}
+
+			@Override
+			public long estimateSize(T item) {
+				long size = 0;
+				for (BatchFlushPolicy<T> policy : policyList) {
+					size = Math.max(size, policy.estimateSize(item));
+				}
+				return size;
+			}
+		};
+	}
+}
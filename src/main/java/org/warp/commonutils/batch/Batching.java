@@ -1,213 +1,263 @@
 package org.warp.commonutils.batch;
 
-import com.google.common.util.concurrent.AtomicDouble;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.locks.ReentrantLock;
-
-public abstract class Batching<T> {
-
-	private final int pingRefreshTimeMillis;
-	private volatile double singleItemTransferTimeMillis;
-	private volatile double latencyMillis;
-	private final AtomicBoolean enablePacking = new AtomicBoolean(false);
-	private final ConcurrentLinkedQueue<ExecutorService> executors = new ConcurrentLinkedQueue<>();
-	private final AtomicBoolean closeRequested = new AtomicBoolean(false);
-	private final ReentrantLock waitingAccesLock = new ReentrantLock();
-	private final ConcurrentLinkedQueue<T> waitingPutItems = new ConcurrentLinkedQueue<>();
-	private final AtomicDouble lostTimeMillis = new AtomicDouble(0d);
-	private final AtomicDouble sentItems = new AtomicDouble(0);
-	private final double startTimeMillis = ((double) System.nanoTime()) / 1000000d;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import org.jetbrains.annotations.Nullable;
+
+public abstract class Batching<T> extends AbstractBatching<T> {
+
+	/**
+	 * Producers only append to this queue, the sender is its only consumer
+	 */
+	private final MpscLinkedQueue<T> waitingPutItems = new MpscLinkedQueue<>();
+	/**
+	 * Items drained from the queue and not sent yet, in FIFO order. Accessed only by the sender
+	 */
+	private final ArrayList<T> pendingItems = new ArrayList<>();
 
 	public Batching(int pingRefreshTimeMillis) {
-		this.pingRefreshTimeMillis = pingRefreshTimeMillis;
-		refreshPing();
-
-		if (enablePacking.get()) {
-			ExecutorService executor = Executors.newFixedThreadPool(2);
-			this.executors.offer(executor);
-			executor.execute(this::pingRefreshExecutor);
-			executor.execute(new BatchSender());
-		}
+		this(pingRefreshTimeMillis, BatchFlushPolicy.adaptive());
 	}
 
-	private void pingRefreshExecutor() {
-		boolean closeReq = false;
-		while (!(closeReq = closeRequested.get())) {
-			try {
-				Thread.sleep(pingRefreshTimeMillis);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-			refreshPing();
-		}
+	/**
+	 * @param flushPolicy decides when the pending items are sent and the maximum size of each batch
+	 */
+	public Batching(int pingRefreshTimeMillis, BatchFlushPolicy<T> flushPolicy) {
+		this(pingRefreshTimeMillis, flushPolicy, 0, BackpressureStrategy.BLOCK);
+	}
+
+	/**
+	 * @param maxPendingItems      maximum number of items accepted and not sent yet, or 0 to disable the limit
+	 * @param backpressureStrategy behavior of the offers that would exceed {@code maxPendingItems}
+	 */
+	public Batching(int pingRefreshTimeMillis,
+			BatchFlushPolicy<T> flushPolicy,
+			int maxPendingItems,
+			BackpressureStrategy backpressureStrategy) {
+		this(pingRefreshTimeMillis, flushPolicy, maxPendingItems, backpressureStrategy, BatchingScheduler.shared());
 	}
 
-	private void refreshPing() {
-		double pingTime = ping();
-		this.latencyMillis = 0.9 * pingTime;
-		this.singleItemTransferTimeMillis = 0.1 * pingTime;
-		this.enablePacking.compareAndSet(false, latencyMillis > 0.1d);
+	/**
+	 * @param scheduler scheduler that refreshes the ping and sends the batches
+	 */
+	public Batching(int pingRefreshTimeMillis,
+			BatchFlushPolicy<T> flushPolicy,
+			int maxPendingItems,
+			BackpressureStrategy backpressureStrategy,
+			BatchingScheduler scheduler) {
+		super(pingRefreshTimeMillis, flushPolicy, maxPendingItems, backpressureStrategy, scheduler);
+		start();
 	}
 
+	/**
+	 * With {@link BackpressureStrategy#ASYNC} the item may be deferred: use {@link #enqueue(Object)} to know when
+	 * it's accepted
+	 *
+	 * @throws RejectedExecutionException if the item can't be accepted with {@link BackpressureStrategy#FAIL_FAST}, if
+	 *                                    the producer is interrupted with {@link BackpressureStrategy#BLOCK}, or if
+	 *                                    too many items are deferred with {@link BackpressureStrategy#ASYNC}
+	 */
 	public void offer(T action) {
-		if (enablePacking.get()) {
-			sentItems.addAndGet(1d);
-			waitingAccesLock.lock();
-			try {
-				waitingPutItems.offer(action);
-			} finally {
-				waitingAccesLock.unlock();
-			}
+		if (isPacking()) {
+			submit(action, null, null);
 		} else {
 			executeDirect(action);
 		}
 	}
 
+	/**
+	 * With {@link BackpressureStrategy#ASYNC} the items may be deferred: use {@link #enqueue(Collection)} to know when
+	 * they are accepted
+	 *
+	 * @throws RejectedExecutionException if the items can't be accepted with {@link BackpressureStrategy#FAIL_FAST}, if
+	 *                                    the producer is interrupted with {@link BackpressureStrategy#BLOCK}, or if
+	 *                                    too many items are deferred with {@link BackpressureStrategy#ASYNC}
+	 */
 	public void offer(Collection<T> actions) {
-		if (enablePacking.get()) {
-			sentItems.addAndGet(actions.size());
-			waitingAccesLock.lock();
-			try {
-				for (T action : actions) {
-					waitingPutItems.offer(action);
-				}
-			} finally {
-				waitingAccesLock.unlock();
-			}
+		if (isPacking()) {
+			submit(actions, null, null);
 		} else {
 			executeDirect(actions);
 		}
 	}
 
-	public void offer(T... actions) {
-		offer(List.of(actions));
+	/**
+	 * Offer an item, applying the {@link BackpressureStrategy} without throwing
+	 *
+	 * @return a future that completes when the item has been accepted, or that fails if it has been rejected
+	 */
+	public CompletableFuture<Void> enqueue(T action) {
+		return enqueue(List.of(action));
 	}
 
-	protected abstract void executeBatch(Collection<T> actions);
-
-	protected void executeBatch(T action) {
-		executeBatch(List.of(action));
+	/**
+	 * Offer some items, applying the {@link BackpressureStrategy} without throwing
+	 *
+	 * @return a future that completes when the items have been accepted, or that fails if they have been rejected
+	 */
+	public CompletableFuture<Void> enqueue(Collection<T> actions) {
+		if (!isPacking()) {
+			executeDirect(actions);
+			return CompletableFuture.completedFuture(null);
+		}
+		var future = new CompletableFuture<Void>();
+		try {
+			submit(actions, null, future);
+		} catch (RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+		}
+		return future;
 	}
 
-	protected abstract void executeDirect(T action);
-
-	protected abstract void executeDirect(Collection<T> action);
-
-	protected abstract double ping();
-
-	public abstract void close();
-
+	/**
+	 * Offer an item and track when it's sent
+	 *
+	 * @return a future that completes when the {@link #executeBatch(Collection)} call containing the item returns, or
+	 * that fails with the exception thrown by that call, or with a {@link RejectedExecutionException} if the item
+	 * can't be accepted
+	 */
+	public CompletableFuture<Void> offerAsync(T action) {
+		if (!isPacking()) {
+			try {
+				executeDirect(action);
+				return CompletableFuture.completedFuture(null);
+			} catch (Throwable ex) {
+				return CompletableFuture.failedFuture(ex);
+			}
+		}
+		var completion = new BatchCompletion(1);
+		try {
+			submit(action, completion, null);
+		} catch (RejectedExecutionException ex) {
+			completion.completeExceptionally(ex);
+		}
+		return completion;
+	}
 
-	private static final double getItemSendLongestTime(double lostTime, double latencyMillis, double waitingSize,
-			double singleItemTransferTimeMillis) {
-		return lostTime + latencyMillis + waitingSize * singleItemTransferTimeMillis;
+	/**
+	 * Offer some items and track when they are sent
+	 *
+	 * @return a future that completes when all the {@link #executeBatch(Collection)} calls containing the items return,
+	 * or that fails with the first exception thrown by one of those calls, or with a {@link RejectedExecutionException}
+	 * if the items can't be accepted
+	 */
+	public CompletableFuture<Void> offerAsync(Collection<T> actions) {
+		if (!isPacking()) {
+			try {
+				executeDirect(actions);
+				return CompletableFuture.completedFuture(null);
+			} catch (Throwable ex) {
+				return CompletableFuture.failedFuture(ex);
+			}
+		}
+		var completion = new BatchCompletion(actions.size());
+		try {
+			submit(actions, completion, null);
+		} catch (RejectedExecutionException ex) {
+			completion.completeExceptionally(ex);
+		}
+		return completion;
 	}
 
-	private static final double getItemSendLongestTimeNext(double lostTime, double latencyMillis, double waitTime,
-			double waitingSize, double singleItemTransferTimeMillis, double itemsPerMillisecondIdeal) {
-		return lostTime + latencyMillis + waitTime + (waitingSize
-				+ (waitTime * itemsPerMillisecondIdeal) * singleItemTransferTimeMillis);
+	/**
+	 * @param completion tracks when the item is sent, if not null
+	 * @param accepted   completed when the item is accepted, if not null
+	 */
+	private void submit(T action, @Nullable BatchCompletion completion, @Nullable CompletableFuture<Void> accepted) {
+		if (beginAppend(1)) {
+			try {
+				waitingPutItems.offer(action, System.nanoTime(), completion);
+			} finally {
+				endAppend();
+			}
+			if (accepted != null) {
+				accepted.complete(null);
+			}
+		} else {
+			defer(1, () -> waitingPutItems.offer(action, System.nanoTime(), completion), accepted);
+		}
 	}
 
-	private static final double getItemsPerSecond(double waitingSize, double itemSendLongestTime) {
-		return waitingSize / notZero(itemSendLongestTime);
+	/**
+	 * @param completion tracks when the items are sent, if not null
+	 * @param accepted   completed when the items are accepted, if not null
+	 */
+	private void submit(Collection<T> actions,
+			@Nullable BatchCompletion completion,
+			@Nullable CompletableFuture<Void> accepted) {
+		if (beginAppend(actions.size())) {
+			try {
+				append(actions, completion);
+			} finally {
+				endAppend();
+			}
+			if (accepted != null) {
+				accepted.complete(null);
+			}
+		} else {
+			defer(actions.size(), () -> append(actions, completion), accepted);
+		}
 	}
 
-	private static final double getAverageItemTime(double waitingSize, double itemSendLongestTime) {
-		return itemSendLongestTime / notZero(waitingSize);
+	private void append(Collection<T> actions, @Nullable BatchCompletion completion) {
+		long now = System.nanoTime();
+		for (T action : actions) {
+			waitingPutItems.offer(action, now, completion);
+		}
 	}
 
-	private static final double getNextItemsPerSecond(double waitingSize, double nextItemSendLongestTime, double waitTime,
-			double itemsPerMillisecondIdeal) {
-		return (waitingSize + (waitTime * itemsPerMillisecondIdeal)) / notZero(nextItemSendLongestTime);
+	@Override
+	final void drainAppended() {
+		T item;
+		while ((item = waitingPutItems.poll()) != null) {
+			pendingItems.add(item);
+			addPending(estimateSize(item),
+					waitingPutItems.polledTimestamp(),
+					(BatchCompletion) waitingPutItems.polledAttachment()
+			);
+		}
 	}
 
-	private static final double getNextAverageItemTime(double waitingSize, double nextItemSendLongestTime,
-			double waitTime, double itemsPerMillisecondIdeal) {
-		return nextItemSendLongestTime / notZero((waitingSize + (waitTime * itemsPerMillisecondIdeal)));
+	@Override
+	final boolean hasAppended() {
+		return !waitingPutItems.isEmpty();
 	}
 
-	private static final double notZero(double input) {
-		if (input != 0) {
-			return input;
+	@Override
+	final void executePending(int count) {
+		if (count > 1) {
+			executeBatch(pendingItems.subList(0, count));
 		} else {
-			return input + 0.000000000000000000001d;
+			executeBatch(pendingItems.get(0));
 		}
 	}
 
-	private class BatchSender implements Runnable {
-
-		@Override
-		public void run() {
-			boolean closeReq;
-			while ((!(closeReq = closeRequested.get())) || !waitingPutItems.isEmpty()) {
-				double waitTimeMillis = latencyMillis;
-				long waitTimeNanoMillis = (long) Math.floor(latencyMillis);
-				int waitTimeNanos = (int) ((waitTimeMillis - ((double) waitTimeNanoMillis)) * 1000000d);
-				try {
-					if (!closeReq) {
-						Thread.sleep(waitTimeNanoMillis, waitTimeNanos);
-					}
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				waitingAccesLock.lock();
-				try {
-					if (!waitingPutItems.isEmpty()) {
-						int waitingSize = waitingPutItems.size();
-						double lostTime = lostTimeMillis.addAndGet(waitTimeMillis); // Get the lost time as the time
-						// in the middle
-						double idealItemsPerMillis =
-								sentItems.get() / notZero(((double) System.nanoTime()) / 1000000d - startTimeMillis);
-						double idealMillisPerItem = 1d / notZero(idealItemsPerMillis);
-						double itemSendLongestTime = getItemSendLongestTime(lostTime, latencyMillis, waitingSize,
-								singleItemTransferTimeMillis);
-						double itemsPerSecond = getItemsPerSecond(waitingSize, itemSendLongestTime);
-						double averageItemTime = getAverageItemTime(waitingSize, itemSendLongestTime);
-						double nextItemSendLongestTime = getItemSendLongestTimeNext(lostTime, latencyMillis, waitTimeMillis,
-								waitingSize, singleItemTransferTimeMillis, idealItemsPerMillis);
-						double nextItemsPerSecond = getNextItemsPerSecond(waitingSize, nextItemSendLongestTime, waitTimeMillis,
-								idealItemsPerMillis);
-						double nextAverageItemTime = getNextAverageItemTime(waitingSize, itemSendLongestTime, waitTimeMillis,
-								idealItemsPerMillis);
-						boolean do1 = idealMillisPerItem > latencyMillis;
-						boolean do2 = itemsPerSecond > nextItemsPerSecond;
-						boolean do3 = averageItemTime - nextAverageItemTime < latencyMillis;
-						boolean do4 = averageItemTime > 5;
-						boolean doThisTurn = do1 | do2 | do3 | do4 || closeReq;
-
-						if (doThisTurn) {
-							lostTimeMillis.set(0);
-							if (waitingSize > 1) {
-								executeBatch(waitingPutItems);
-							} else {
-								T pair = waitingPutItems.poll();
-								executeBatch(pair);
-							}
-							if ((System.nanoTime() % 100) < 1) {
-								System.out.printf("LATENCY=%.2f; WAITED=%.2f; PACKET_SIZE=%.2f; AVG_ITEM_TIME=%.2f; "
-												+ "NEXT_AVG_ITEM_TIME=%.2f; DO=%s,%s,%s\n", latencyMillis, lostTime, (double) waitingSize,
-										averageItemTime, nextAverageItemTime, "" + do1, "" + do2, "" + do3);
-								System.out.printf("idealMillisPerItem=%.2f; itemsPerSecond=%.2f; nextItemsPerSecond=%"
-												+ ".2f; averageItemTime-nextAverageItemTime=%.2f\n", idealItemsPerMillis, itemsPerSecond,
-										nextItemsPerSecond, averageItemTime - nextAverageItemTime);
-							}
-							waitingPutItems.clear();
-						} else {
-							if ((System.nanoTime() % 100) < 1) {
-								System.out.println("SKIPPED TURN");
-							}
-						}
-					}
-				} finally {
-					waitingAccesLock.unlock();
-				}
-			}
-		}
+	@Override
+	final void removePending(int count) {
+		pendingItems.subList(0, count).clear();
+	}
+
+	public void offer(T... actions) {
+		offer(List.of(actions));
 	}
+
+	/**
+	 * @param actions the items of the batch. The collection is reused by the sender after this method returns,
+	 *                so it must not be retained
+	 */
+	protected abstract void executeBatch(Collection<T> actions);
+
+	protected void executeBatch(T action) {
+		executeBatch(List.of(action));
+	}
+
+	protected abstract void executeDirect(T action);
+
+	protected abstract void executeDirect(Collection<T> action);
+
+	@Override
+	protected abstract double ping();
 }
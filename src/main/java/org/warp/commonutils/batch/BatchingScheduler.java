@@ -0,0 +1,229 @@
+package org.warp.commonutils.batch;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import org.warp.commonutils.type.ShortNamedThreadFactory;
+
+/**
+ * Runs the ping refresh and the flushes of many {@link Batching} and {@link ColumnarBatching} instances on a small
+ * shared pool of threads, instead of two dedicated threads per instance.
+ * <p>
+ * Every registered batcher owns a chain of one-shot flush tasks: each flush sends the batches that its policy allows
+ * and then schedules the next check, so an idle batcher costs only a queued task.
+ * Batches are sent on the scheduler threads, so slow backends should be given their own scheduler.
+ * <p>
+ * The scheduled tasks reference their batcher weakly: the tasks of a batcher that becomes unreachable without being
+ * closed are cancelled.
+ */
+public final class BatchingScheduler implements Closeable {
+
+	/**
+	 * Lower bound of the delay between two checks of the same batcher, so that a policy that asks to be checked
+	 * continuously can't monopolize a shared thread
+	 */
+	private static final long MIN_CHECK_INTERVAL_NANOS = 100_000L;
+
+	private static volatile BatchingScheduler shared;
+
+	private final ScheduledExecutorService executor;
+	private final boolean ownsExecutor;
+
+	/**
+	 * @param threads number of daemon threads of the scheduler
+	 */
+	public BatchingScheduler(int threads) {
+		var threadFactory = new ShortNamedThreadFactory("batching");
+		var executor = new ScheduledThreadPoolExecutor(threads, runnable -> {
+			Thread thread = threadFactory.newThread(runnable);
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.setRemoveOnCancelPolicy(true);
+		this.executor = executor;
+		this.ownsExecutor = true;
+	}
+
+	/**
+	 * @param executor executor that runs the scheduled tasks. It's not shut down by {@link #close()}
+	 */
+	public BatchingScheduler(ScheduledExecutorService executor) {
+		this.executor = executor;
+		this.ownsExecutor = false;
+	}
+
+	/**
+	 * @return the scheduler used by the batchers created without an explicit scheduler, with one daemon thread per
+	 * available processor. It can't be closed
+	 */
+	public static BatchingScheduler shared() {
+		BatchingScheduler scheduler = shared;
+		if (scheduler == null) {
+			synchronized (BatchingScheduler.class) {
+				scheduler = shared;
+				if (scheduler == null) {
+					scheduler = new BatchingScheduler(Runtime.getRuntime().availableProcessors());
+					shared = scheduler;
+				}
+			}
+		}
+		return scheduler;
+	}
+
+	/**
+	 * @param batcher     the batcher, referenced weakly. The tasks must not reference it strongly
+	 * @param refreshPing task executed every {@code pingRefreshTimeMillis}
+	 * @param flush       task that sends the pending batches and returns the delay before the next call, in nanoseconds
+	 * @param onFailure   receives the exceptions thrown by the tasks, which keep being scheduled
+	 */
+	<B> Registration<B> register(int pingRefreshTimeMillis,
+			B batcher,
+			Consumer<B> refreshPing,
+			ToLongFunction<B> flush,
+			BiConsumer<B, Throwable> onFailure) {
+		return new Registration<>(pingRefreshTimeMillis, batcher, refreshPing, flush, onFailure);
+	}
+
+	/**
+	 * Stops the threads created by this scheduler. The batchers registered to it stop sending their items,
+	 * so they should be closed first
+	 *
+	 * @throws UnsupportedOperationException if this is the {@link #shared()} scheduler
+	 */
+	@Override
+	public void close() {
+		if (this == shared) {
+			throw new UnsupportedOperationException("The shared scheduler can't be closed");
+		}
+		if (ownsExecutor) {
+			executor.shutdown();
+		}
+	}
+
+	final class Registration<B> {
+
+		private final WeakReference<B> batcher;
+		private final ToLongFunction<B> flush;
+		private final BiConsumer<B, Throwable> onFailure;
+		private final ScheduledFuture<?> pingRefresh;
+		/**
+		 * Serializes the flushes of this batcher, and guards the fields below
+		 */
+		private final ReentrantLock flushLock = new ReentrantLock();
+		private ScheduledFuture<?> nextFlush;
+		private boolean closed;
+
+		private Registration(int pingRefreshTimeMillis,
+				B batcher,
+				Consumer<B> refreshPing,
+				ToLongFunction<B> flush,
+				BiConsumer<B, Throwable> onFailure) {
+			this.batcher = new WeakReference<>(batcher);
+			this.flush = flush;
+			this.onFailure = onFailure;
+			this.pingRefresh = executor.scheduleWithFixedDelay(() -> {
+						B target = this.batcher.get();
+						if (target == null) {
+							cancelCollected();
+							return;
+						}
+						// A periodic task that throws is never run again
+						try {
+							refreshPing.accept(target);
+						} catch (Throwable ex) {
+							reportFailure(target, ex);
+						}
+					},
+					pingRefreshTimeMillis,
+					pingRefreshTimeMillis,
+					TimeUnit.MILLISECONDS
+			);
+			flushLock.lock();
+			try {
+				this.nextFlush = executor.schedule(this::runFlush, 0, TimeUnit.NANOSECONDS);
+			} finally {
+				flushLock.unlock();
+			}
+		}
+
+		private void runFlush() {
+			flushLock.lock();
+			try {
+				if (closed) {
+					return;
+				}
+				B target = batcher.get();
+				if (target == null) {
+					cancelCollected();
+					return;
+				}
+				long delayNanos;
+				try {
+					delayNanos = flush.applyAsLong(target);
+				} catch (Throwable ex) {
+					reportFailure(target, ex);
+					delayNanos = 0;
+				}
+				nextFlush = executor.schedule(this::runFlush,
+						Math.max(MIN_CHECK_INTERVAL_NANOS, delayNanos),
+						TimeUnit.NANOSECONDS
+				);
+			} finally {
+				flushLock.unlock();
+			}
+		}
+
+		private void reportFailure(B target, Throwable ex) {
+			try {
+				onFailure.accept(target, ex);
+			} catch (Throwable handlerEx) {
+				handlerEx.addSuppressed(ex);
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, handlerEx);
+			}
+		}
+
+		/**
+		 * Cancels the scheduled tasks of a batcher that has been collected without being closed
+		 */
+		private void cancelCollected() {
+			flushLock.lock();
+			try {
+				closed = true;
+				if (pingRefresh != null) {
+					pingRefresh.cancel(false);
+				}
+				if (nextFlush != null) {
+					nextFlush.cancel(false);
+				}
+			} finally {
+				flushLock.unlock();
+			}
+		}
+
+		/**
+		 * Cancels the scheduled tasks and runs the final drain, after the running flush, if any, has completed
+		 */
+		void close(Runnable drain) {
+			pingRefresh.cancel(false);
+			flushLock.lock();
+			try {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				nextFlush.cancel(false);
+				drain.run();
+			} finally {
+				flushLock.unlock();
+			}
+		}
+	}
+}
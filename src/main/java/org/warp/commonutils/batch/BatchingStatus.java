@@ -0,0 +1,68 @@
+package org.warp.commonutils.batch;
+
+/**
+ * State of the items waiting to be sent by a {@link Batching}, as seen by its {@link BatchFlushPolicy}.
+ * The instance is owned by the sender and updated in place, so it must not be retained.
+ */
+public final class BatchingStatus {
+
+	int pendingItems;
+	long pendingBytes;
+	long oldestItemAgeNanos;
+	double latencyMillis;
+	double singleItemTransferTimeMillis;
+	double offeredItemsPerMillis;
+	boolean closing;
+
+	BatchingStatus() {
+	}
+
+	/**
+	 * @return number of items drained by the sender and not sent yet
+	 */
+	public int getPendingItems() {
+		return pendingItems;
+	}
+
+	/**
+	 * @return estimated size of the pending items, as reported by {@link BatchFlushPolicy#estimateSize(Object)}
+	 */
+	public long getPendingBytes() {
+		return pendingBytes;
+	}
+
+	/**
+	 * @return time elapsed since the oldest pending item has been offered, or 0 if there are no pending items
+	 */
+	public long getOldestItemAgeNanos() {
+		return oldestItemAgeNanos;
+	}
+
+	/**
+	 * @return latency of a single batch, derived from the last ping
+	 */
+	public double getLatencyMillis() {
+		return latencyMillis;
+	}
+
+	/**
+	 * @return transfer time of a single item, derived from the last ping
+	 */
+	public double getSingleItemTransferTimeMillis() {
+		return singleItemTransferTimeMillis;
+	}
+
+	/**
+	 * @return average number of items offered per millisecond since the batching started
+	 */
+	public double getOfferedItemsPerMillis() {
+		return offeredItemsPerMillis;
+	}
+
+	/**
+	 * @return true if the batching is closing, in which case every pending item is sent regardless of the policy
+	 */
+	public boolean isClosing() {
+		return closing;
+	}
+}
@@ -0,0 +1,87 @@
+package org.warp.commonutils.batch;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of the {@code Object[]} chunks used by {@link ParallelUtils}, shared by all the calls.
+ * At most {@link #MAX_POOLED_LENGTHS} array lengths are pooled, and each of them keeps at most
+ * {@link #MAX_POOLED_ARRAYS} arrays and {@link #MAX_POOLED_ELEMENTS} elements, so that big chunks don't pin much
+ * memory after the calls that used them are done. The pools grow only when arrays are recycled.
+ */
+final class ChunkArrayPool {
+
+	private static final int MAX_POOLED_LENGTHS = 16;
+	private static final int MAX_POOLED_ARRAYS = 64;
+	private static final int MAX_POOLED_ELEMENTS = 1 << 16;
+
+	static final ChunkArrayPool SHARED = new ChunkArrayPool();
+
+	private final ConcurrentHashMap<Integer, Pool> pools = new ConcurrentHashMap<>();
+
+	/**
+	 * @return an array of {@code length} null elements
+	 */
+	Object[] take(int length) {
+		Pool pool = pools.get(length);
+		Object[] array = pool != null ? pool.poll() : null;
+		return array != null ? array : new Object[length];
+	}
+
+	/**
+	 * Clears the array and makes it available to the next {@link #take(int)}. The array must not be used anymore
+	 */
+	void recycle(Object[] array) {
+		Pool pool = pools.get(array.length);
+		if (pool == null) {
+			// The limit can be exceeded by a few lengths when they are added concurrently
+			if (pools.size() >= MAX_POOLED_LENGTHS) {
+				return;
+			}
+			pool = pools.computeIfAbsent(array.length, Pool::new);
+		}
+		if (pool.tryReserve()) {
+			Arrays.fill(array, null);
+			pool.arrays.add(array);
+		}
+	}
+
+	private static final class Pool {
+
+		private final ConcurrentLinkedQueue<Object[]> arrays = new ConcurrentLinkedQueue<>();
+		/**
+		 * Arrays in the pool, including the ones that are being added
+		 */
+		private final AtomicInteger size = new AtomicInteger();
+		private final int capacity;
+
+		private Pool(int length) {
+			this.capacity = Math.max(1, Math.min(MAX_POOLED_ARRAYS, MAX_POOLED_ELEMENTS / Math.max(1, length)));
+		}
+
+		/**
+		 * @return false if the pool is full
+		 */
+		private boolean tryReserve() {
+			while (true) {
+				int current = size.get();
+				if (current >= capacity) {
+					return false;
+				}
+				if (size.compareAndSet(current, current + 1)) {
+					return true;
+				}
+			}
+		}
+
+		private Object[] poll() {
+			Object[] array = arrays.poll();
+			if (array != null) {
+				size.decrementAndGet();
+			}
+			return array;
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package org.warp.commonutils.batch;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectList;
+import it.unimi.dsi.fastutil.objects.ObjectLists;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Batches key-value entries like a {@link Batching}, but stores them in columns, one for the keys and one for the
+ * values, so that offering an entry doesn't allocate any wrapper object.
+ * <p>
+ * Producers append the entries to a lock-free queue made of column chunks, and the sender moves them to the pending
+ * columns. The batches are passed to {@link #executeBatch(Object, ObjectList)} as views of the pending columns.
+ * The {@link BatchFlushPolicy} estimates the size of the values only.
+ *
+ * @param <KEYS> type of the key column
+ * @param <V>    type of the values
+ * @see ColumnarKVBatching
+ * @see Long2ObjectColumnarBatching
+ * @see Int2ObjectColumnarBatching
+ */
+public abstract class ColumnarBatching<KEYS, V> extends AbstractBatching<V> {
+
+	private final ColumnarKeyType keyType;
+	/**
+	 * Producers only append to this queue, the sender is its only consumer
+	 */
+	private final MpscColumnQueue<V> waitingPutEntries;
+	/**
+	 * Entries drained from the queue and not sent yet, in FIFO order. Accessed only by the sender
+	 */
+	private final Object pendingKeys;
+	private final ObjectArrayList<V> pendingValues = new ObjectArrayList<>();
+
+	ColumnarBatching(ColumnarKeyType keyType,
+			int pingRefreshTimeMillis,
+			BatchFlushPolicy<V> flushPolicy,
+			int maxPendingItems,
+			BackpressureStrategy backpressureStrategy,
+			BatchingScheduler scheduler) {
+		super(pingRefreshTimeMillis, flushPolicy, maxPendingItems, backpressureStrategy, scheduler);
+		this.keyType = keyType;
+		this.waitingPutEntries = new MpscColumnQueue<>(keyType);
+		this.pendingKeys = keyType.newList();
+		start();
+	}
+
+	/**
+	 * @param primitiveKey key of a primitive key column
+	 * @param objectKey    key of an object key column
+	 * @see Batching#offer(Object)
+	 */
+	final void offerEntry(long primitiveKey, Object objectKey, V value) {
+		if (isPacking()) {
+			submit(primitiveKey, objectKey, value, null, null);
+		} else {
+			executeDirect(primitiveKey, objectKey, value);
+		}
+	}
+
+	/**
+	 * @param keys key array of the type of the key column
+	 * @see Batching#offer(java.util.Collection)
+	 */
+	final void offerEntries(Object keys, int keysCount, V[] values) {
+		checkCount(keysCount, values);
+		if (isPacking()) {
+			submit(keys, values, null, null);
+		} else {
+			executeDirect(keys, values);
+		}
+	}
+
+	/**
+	 * @see Batching#enqueue(Object)
+	 */
+	final CompletableFuture<Void> enqueueEntry(long primitiveKey, Object objectKey, V value) {
+		if (!isPacking()) {
+			executeDirect(primitiveKey, objectKey, value);
+			return CompletableFuture.completedFuture(null);
+		}
+		var future = new CompletableFuture<Void>();
+		try {
+			submit(primitiveKey, objectKey, value, null, future);
+		} catch (RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
+	/**
+	 * @see Batching#enqueue(java.util.Collection)
+	 */
+	final CompletableFuture<Void> enqueueEntries(Object keys, int keysCount, V[] values) {
+		checkCount(keysCount, values);
+		if (!isPacking()) {
+			executeDirect(keys, values);
+			return CompletableFuture.completedFuture(null);
+		}
+		var future = new CompletableFuture<Void>();
+		try {
+			submit(keys, values, null, future);
+		} catch (RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
+	/**
+	 * @see Batching#offerAsync(Object)
+	 */
+	final CompletableFuture<Void> offerAsyncEntry(long primitiveKey, Object objectKey, V value) {
+		if (!isPacking()) {
+			try {
+				executeDirect(primitiveKey, objectKey, value);
+				return CompletableFuture.completedFuture(null);
+			} catch (Throwable ex) {
+				return CompletableFuture.failedFuture(ex);
+			}
+		}
+		var completion = new BatchCompletion(1);
+		try {
+			submit(primitiveKey, objectKey, value, completion, null);
+		} catch (RejectedExecutionException ex) {
+			completion.completeExceptionally(ex);
+		}
+		return completion;
+	}
+
+	/**
+	 * @see Batching#offerAsync(java.util.Collection)
+	 */
+	final CompletableFuture<Void> offerAsyncEntries(Object keys, int keysCount, V[] values) {
+		checkCount(keysCount, values);
+		if (!isPacking()) {
+			try {
+				executeDirect(keys, values);
+				return CompletableFuture.completedFuture(null);
+			} catch (Throwable ex) {
+				return CompletableFuture.failedFuture(ex);
+			}
+		}
+		var completion = new BatchCompletion(values.length);
+		try {
+			submit(keys, values, completion, null);
+		} catch (RejectedExecutionException ex) {
+			completion.completeExceptionally(ex);
+		}
+		return completion;
+	}
+
+	private void checkCount(int keysCount, V[] values) {
+		if (keysCount != values.length) {
+			throw new IllegalArgumentException("Keys and values count must be the same.");
+		}
+	}
+
+	/**
+	 * @param completion tracks when the entry is sent, if not null
+	 * @param accepted   completed when the entry is accepted, if not null
+	 */
+	private void submit(long primitiveKey,
+			Object objectKey,
+			V value,
+			@Nullable BatchCompletion completion,
+			@Nullable CompletableFuture<Void> accepted) {
+		if (beginAppend(1)) {
+			try {
+				waitingPutEntries.offer(primitiveKey, objectKey, value, System.nanoTime(), completion);
+			} finally {
+				endAppend();
+			}
+			if (accepted != null) {
+				accepted.complete(null);
+			}
+		} else {
+			defer(1,
+					() -> waitingPutEntries.offer(primitiveKey, objectKey, value, System.nanoTime(), completion),
+					accepted
+			);
+		}
+	}
+
+	/**
+	 * @param completion tracks when the entries are sent, if not null
+	 * @param accepted   completed when the entries are accepted, if not null
+	 */
+	private void submit(Object keys,
+			V[] values,
+			@Nullable BatchCompletion completion,
+			@Nullable CompletableFuture<Void> accepted) {
+		if (beginAppend(values.length)) {
+			try {
+				waitingPutEntries.offer(keys, values, System.nanoTime(), completion);
+			} finally {
+				endAppend();
+			}
+			if (accepted != null) {
+				accepted.complete(null);
+			}
+		} else {
+			// The caller can reuse the arrays as soon as this method returns
+			Object keysCopy = keyType.newArray(values.length);
+			System.arraycopy(keys, 0, keysCopy, 0, values.length);
+			V[] valuesCopy = values.clone();
+			defer(values.length,
+					() -> waitingPutEntries.offer(keysCopy, valuesCopy, System.nanoTime(), completion),
+					accepted
+			);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void executeDirect(long primitiveKey, Object objectKey, V value) {
+		executeBatch((KEYS) keyType.singleton(primitiveKey, objectKey), ObjectLists.singleton(value));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void executeDirect(Object keys, V[] values) {
+		executeBatch((KEYS) keyType.wrap(keys), ObjectArrayList.wrap(values));
+	}
+
+	@Override
+	final void drainAppended() {
+		while (waitingPutEntries.poll(pendingKeys)) {
+			V value = waitingPutEntries.polledValue();
+			pendingValues.add(value);
+			addPending(estimateSize(value),
+					waitingPutEntries.polledTimestamp(),
+					(BatchCompletion) waitingPutEntries.polledAttachment()
+			);
+		}
+	}
+
+	@Override
+	final boolean hasAppended() {
+		return !waitingPutEntries.isEmpty();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	final void executePending(int count) {
+		KEYS keys = (KEYS) keyType.head(pendingKeys, count);
+		if (count == pendingValues.size()) {
+			executeBatch(keys, pendingValues);
+		} else {
+			executeBatch(keys, pendingValues.subList(0, count));
+		}
+	}
+
+	@Override
+	final void removePending(int count) {
+		keyType.removeHead(pendingKeys, count);
+		pendingValues.removeElements(0, count);
+	}
+
+	/**
+	 * @param keys   the keys of the batch
+	 * @param values the values of the batch, in the same order of the keys. Both the lists are views of columns
+	 *               that are reused by the sender after this method returns, so they must not be retained
+	 */
+	protected abstract void executeBatch(KEYS keys, ObjectList<V> values);
+
+	@Override
+	protected abstract double ping();
+}
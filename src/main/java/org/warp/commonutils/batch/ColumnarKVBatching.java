@@ -0,0 +1,92 @@
+package org.warp.commonutils.batch;
+
+import it.unimi.dsi.fastutil.objects.ObjectList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link ColumnarBatching} with object keys, stored in their own column, so that no {@code Pair} is allocated per entry.
+ * Prefer {@link Long2ObjectColumnarBatching} or {@link Int2ObjectColumnarBatching} for primitive keys.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values, for example {@code byte[]}
+ */
+public abstract class ColumnarKVBatching<K, V> extends ColumnarBatching<ObjectList<K>, V> {
+
+	public ColumnarKVBatching(int pingRefreshTimeMillis) {
+		this(pingRefreshTimeMillis, BatchFlushPolicy.adaptive());
+	}
+
+	/**
+	 * @param flushPolicy decides when the pending entries are sent and the maximum size of each batch.
+	 *                    Only the values are passed to {@link BatchFlushPolicy#estimateSize(Object)}
+	 */
+	public ColumnarKVBatching(int pingRefreshTimeMillis, BatchFlushPolicy<V> flushPolicy) {
+		this(pingRefreshTimeMillis, flushPolicy, 0, BackpressureStrategy.BLOCK);
+	}
+
+	/**
+	 * @param maxPendingItems      maximum number of entries accepted and not sent yet, or 0 to disable the limit
+	 * @param backpressureStrategy behavior of the offers that would exceed {@code maxPendingItems}
+	 */
+	public ColumnarKVBatching(int pingRefreshTimeMillis,
+			BatchFlushPolicy<V> flushPolicy,
+			int maxPendingItems,
+			BackpressureStrategy backpressureStrategy) {
+		this(pingRefreshTimeMillis, flushPolicy, maxPendingItems, backpressureStrategy, BatchingScheduler.shared());
+	}
+
+	/**
+	 * @param scheduler scheduler that refreshes the ping and sends the batches
+	 */
+	public ColumnarKVBatching(int pingRefreshTimeMillis,
+			BatchFlushPolicy<V> flushPolicy,
+			int maxPendingItems,
+			BackpressureStrategy backpressureStrategy,
+			BatchingScheduler scheduler) {
+		super(ColumnarKeyType.OBJECT, pingRefreshTimeMillis, flushPolicy, maxPendingItems, backpressureStrategy, scheduler);
+	}
+
+	/**
+	 * @see Batching#offer(Object)
+	 */
+	public void offer(K key, V value) {
+		offerEntry(0, key, value);
+	}
+
+	/**
+	 * Offer some entries with a single copy of the arrays
+	 *
+	 * @see Batching#offer(java.util.Collection)
+	 */
+	public void offer(K[] keys, V[] values) {
+		offerEntries(keys, keys.length, values);
+	}
+
+	/**
+	 * @see Batching#enqueue(Object)
+	 */
+	public CompletableFuture<Void> enqueue(K key, V value) {
+		return enqueueEntry(0, key, value);
+	}
+
+	/**
+	 * @see Batching#enqueue(java.util.Collection)
+	 */
+	public CompletableFuture<Void> enqueue(K[] keys, V[] values) {
+		return enqueueEntries(keys, keys.length, values);
+	}
+
+	/**
+	 * @see Batching#offerAsync(Object)
+	 */
+	public CompletableFuture<Void> offerAsync(K key, V value) {
+		return offerAsyncEntry(0, key, value);
+	}
+
+	/**
+	 * @see Batching#offerAsync(java.util.Collection)
+	 */
+	public CompletableFuture<Void> offerAsync(K[] keys, V[] values) {
+		return offerAsyncEntries(keys, keys.length, values);
+	}
+}
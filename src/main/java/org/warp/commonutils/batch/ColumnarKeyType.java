@@ -0,0 +1,178 @@
+package org.warp.commonutils.batch;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntLists;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongLists;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectLists;
+
+/**
+ * Type of the key column of a {@link ColumnarBatching}.
+ * <p>
+ * The key arrays are {@code long[]}, {@code int[]} or {@code Object[]}, and the key lists are the matching fastutil
+ * array lists. A single key is passed as a {@code long}, which holds the {@code int} keys too, and as an
+ * {@code Object}, so that no key is boxed.
+ */
+enum ColumnarKeyType {
+	LONG {
+		@Override
+		Object newArray(int length) {
+			return new long[length];
+		}
+
+		@Override
+		void set(Object array, int index, long primitiveKey, Object objectKey) {
+			((long[]) array)[index] = primitiveKey;
+		}
+
+		@Override
+		Object newList() {
+			return new LongArrayList();
+		}
+
+		@Override
+		void moveTo(Object list, Object array, int index) {
+			((LongArrayList) list).add(((long[]) array)[index]);
+		}
+
+		@Override
+		Object head(Object list, int count) {
+			var keys = (LongArrayList) list;
+			return count == keys.size() ? keys : keys.subList(0, count);
+		}
+
+		@Override
+		void removeHead(Object list, int count) {
+			((LongArrayList) list).removeElements(0, count);
+		}
+
+		@Override
+		Object singleton(long primitiveKey, Object objectKey) {
+			return LongLists.singleton(primitiveKey);
+		}
+
+		@Override
+		Object wrap(Object array) {
+			return LongArrayList.wrap((long[]) array);
+		}
+	},
+	INT {
+		@Override
+		Object newArray(int length) {
+			return new int[length];
+		}
+
+		@Override
+		void set(Object array, int index, long primitiveKey, Object objectKey) {
+			((int[]) array)[index] = (int) primitiveKey;
+		}
+
+		@Override
+		Object newList() {
+			return new IntArrayList();
+		}
+
+		@Override
+		void moveTo(Object list, Object array, int index) {
+			((IntArrayList) list).add(((int[]) array)[index]);
+		}
+
+		@Override
+		Object head(Object list, int count) {
+			var keys = (IntArrayList) list;
+			return count == keys.size() ? keys : keys.subList(0, count);
+		}
+
+		@Override
+		void removeHead(Object list, int count) {
+			((IntArrayList) list).removeElements(0, count);
+		}
+
+		@Override
+		Object singleton(long primitiveKey, Object objectKey) {
+			return IntLists.singleton((int) primitiveKey);
+		}
+
+		@Override
+		Object wrap(Object array) {
+			return IntArrayList.wrap((int[]) array);
+		}
+	},
+	OBJECT {
+		@Override
+		Object newArray(int length) {
+			return new Object[length];
+		}
+
+		@Override
+		void set(Object array, int index, long primitiveKey, Object objectKey) {
+			((Object[]) array)[index] = objectKey;
+		}
+
+		@Override
+		Object newList() {
+			return new ObjectArrayList<>();
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		void moveTo(Object list, Object array, int index) {
+			Object[] keys = (Object[]) array;
+			((ObjectArrayList<Object>) list).add(keys[index]);
+			keys[index] = null;
+		}
+
+		@Override
+		Object head(Object list, int count) {
+			var keys = (ObjectArrayList<?>) list;
+			return count == keys.size() ? keys : keys.subList(0, count);
+		}
+
+		@Override
+		void removeHead(Object list, int count) {
+			((ObjectArrayList<?>) list).removeElements(0, count);
+		}
+
+		@Override
+		Object singleton(long primitiveKey, Object objectKey) {
+			return ObjectLists.singleton(objectKey);
+		}
+
+		@Override
+		Object wrap(Object array) {
+			return ObjectArrayList.wrap((Object[]) array);
+		}
+	};
+
+	abstract Object newArray(int length);
+
+	/**
+	 * Store a key in a key array
+	 */
+	abstract void set(Object array, int index, long primitiveKey, Object objectKey);
+
+	abstract Object newList();
+
+	/**
+	 * Append a key of an array to a key list, and clear it from the array if it's an object
+	 */
+	abstract void moveTo(Object list, Object array, int index);
+
+	/**
+	 * @return a view of the first {@code count} keys of a key list
+	 */
+	abstract Object head(Object list, int count);
+
+	abstract void removeHead(Object list, int count);
+
+	/**
+	 * @return an immutable key list with a single key
+	 */
+	abstract Object singleton(long primitiveKey, Object objectKey);
+
+	/**
+	 * @return a key list backed by a key array
+	 */
+	abstract Object wrap(Object array);
+}
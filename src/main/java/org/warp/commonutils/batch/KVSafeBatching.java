@@ -3,14 +3,38 @@ package org.warp.commonutils.batch;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import org.apache.commons.lang3.tuple.Pair;
 
+/**
+ * A {@link Batching} of key-value entries, which wraps every entry in a {@link Pair}.
+ * Use a {@link ColumnarBatching} to batch entries without allocating a wrapper per entry.
+ */
 public abstract class KVSafeBatching<T, U> extends Batching<Pair<T, U>> {
 
 	public KVSafeBatching(int pingRefreshTimeMillis) {
 		super(pingRefreshTimeMillis);
 	}
 
+	public KVSafeBatching(int pingRefreshTimeMillis, BatchFlushPolicy<Pair<T, U>> flushPolicy) {
+		super(pingRefreshTimeMillis, flushPolicy);
+	}
+
+	public KVSafeBatching(int pingRefreshTimeMillis,
+			BatchFlushPolicy<Pair<T, U>> flushPolicy,
+			int maxPendingItems,
+			BackpressureStrategy backpressureStrategy) {
+		super(pingRefreshTimeMillis, flushPolicy, maxPendingItems, backpressureStrategy);
+	}
+
+	public KVSafeBatching(int pingRefreshTimeMillis,
+			BatchFlushPolicy<Pair<T, U>> flushPolicy,
+			int maxPendingItems,
+			BackpressureStrategy backpressureStrategy,
+			BatchingScheduler scheduler) {
+		super(pingRefreshTimeMillis, flushPolicy, maxPendingItems, backpressureStrategy, scheduler);
+	}
+
 	@Deprecated
 	@Override
 	public void offer(Pair<T, U>... actions) {
@@ -20,15 +44,7 @@ public abstract class KVSafeBatching<T, U> extends Batching<Pair<T, U>> {
 	@Deprecated
 	@Override
 	public void offer(Collection<Pair<T, U>> actions) {
-		Object[] keys = new Object[actions.size()];
-		Object[] values = new Object[actions.size()];
-		int i = 0;
-		for (Pair<T, U> action : actions) {
-			keys[i] = action.getKey();
-			values[i] = action.getValue();
-			i++;
-		}
-		offer_(keys, values);
+		super.offer(actions);
 	}
 
 	public void offer(T key, U value) {
@@ -43,6 +59,15 @@ public abstract class KVSafeBatching<T, U> extends Batching<Pair<T, U>> {
 		}
 	}
 
+	/**
+	 * @return a future that completes when the batch containing the entry has been sent
+	 * @see Batching#offerAsync(Object)
+	 * @see ColumnarKVBatching#offerAsync(Object[], Object[]) to offer many entries without a {@link Pair} per entry
+	 */
+	public CompletableFuture<Void> offerAsync(T key, U value) {
+		return super.offerAsync(Pair.of(key, value));
+	}
+
 	private void offer_(T key, U value) {
 		super.offer(Pair.of(key, value));
 	}
@@ -72,9 +97,4 @@ public abstract class KVSafeBatching<T, U> extends Batching<Pair<T, U>> {
 	protected void executeDirect(Collection<Pair<T, U>> action) {
 
 	}
-
-	@Override
-	public void close() {
-
-	}
 }
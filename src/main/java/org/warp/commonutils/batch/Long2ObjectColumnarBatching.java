@@ -0,0 +1,90 @@
+package org.warp.commonutils.batch;
+
+import it.unimi.dsi.fastutil.longs.LongList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A {@link ColumnarBatching} with primitive {@code long} keys, stored in a {@code long[]} column without boxing.
+ *
+ * @param <V> type of the values, for example {@code byte[]}
+ */
+public abstract class Long2ObjectColumnarBatching<V> extends ColumnarBatching<LongList, V> {
+
+	public Long2ObjectColumnarBatching(int pingRefreshTimeMillis) {
+		this(pingRefreshTimeMillis, BatchFlushPolicy.adaptive());
+	}
+
+	/**
+	 * @param flushPolicy decides when the pending entries are sent and the maximum size of each batch.
+	 *                    Only the values are passed to {@link BatchFlushPolicy#estimateSize(Object)}
+	 */
+	public Long2ObjectColumnarBatching(int pingRefreshTimeMillis, BatchFlushPolicy<V> flushPolicy) {
+		this(pingRefreshTimeMillis, flushPolicy, 0, BackpressureStrategy.BLOCK);
+	}
+
+	/**
+	 * @param maxPendingItems      maximum number of entries accepted and not sent yet, or 0 to disable the limit
+	 * @param backpressureStrategy behavior of the offers that would exceed {@code maxPendingItems}
+	 */
+	public Long2ObjectColumnarBatching(int pingRefreshTimeMillis,
+			BatchFlushPolicy<V> flushPolicy,
+			int maxPendingItems,
+			BackpressureStrategy backpressureStrategy) {
+		this(pingRefreshTimeMillis, flushPolicy, maxPendingItems, backpressureStrategy, BatchingScheduler.shared());
+	}
+
+	/**
+	 * @param scheduler scheduler that refreshes the ping and sends the batches
+	 */
+	public Long2ObjectColumnarBatching(int pingRefreshTimeMillis,
+			BatchFlushPolicy<V> flushPolicy,
+			int maxPendingItems,
+			BackpressureStrategy backpressureStrategy,
+			BatchingScheduler scheduler) {
+		super(ColumnarKeyType.LONG, pingRefreshTimeMillis, flushPolicy, maxPendingItems, backpressureStrategy, scheduler);
+	}
+
+	/**
+	 * @see Batching#offer(Object)
+	 */
+	public void offer(long key, V value) {
+		offerEntry(key, null, value);
+	}
+
+	/**
+	 * Offer some entries with a single copy of the arrays
+	 *
+	 * @see Batching#offer(java.util.Collection)
+	 */
+	public void offer(long[] keys, V[] values) {
+		offerEntries(keys, keys.length, values);
+	}
+
+	/**
+	 * @see Batching#enqueue(Object)
+	 */
+	public CompletableFuture<Void> enqueue(long key, V value) {
+		return enqueueEntry(key, null, value);
+	}
+
+	/**
+	 * @see Batching#enqueue(java.util.Collection)
+	 */
+	public CompletableFuture<Void> enqueue(long[] keys, V[] values) {
+		return enqueueEntries(keys, keys.length, values);
+	}
+
+	/**
+	 * @see Batching#offerAsync(Object)
+	 */
+	public CompletableFuture<Void> offerAsync(long key, V value) {
+		return offerAsyncEntry(key, null, value);
+	}
+
+	/**
+	 * @see Batching#offerAsync(java.util.Collection)
+	 */
+	public CompletableFuture<Void> offerAsync(long[] keys, V[] values) {
+		return offerAsyncEntries(keys, keys.length, values);
+	}
+}
@@ -0,0 +1,213 @@
+package org.warp.commonutils.batch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded lock-free multi-producer single-consumer queue of key-value entries, stored in columns.
+ * <p>
+ * The entries are stored in a linked list of chunks, each one made of parallel arrays of {@value #CHUNK_SIZE} keys,
+ * values, timestamps and attachments, so no object is allocated per entry. Producers reserve consecutive slots of a
+ * chunk with a single atomic add, write them, and then count them as written. The consumer reads the slots of a
+ * chunk only when all the reserved slots have been written, so it may briefly see the queue as empty while a
+ * producer is writing.
+ * {@link #poll(Object)} and {@link #isEmpty()} must only be called by the single consumer thread.
+ */
+final class MpscColumnQueue<V> {
+
+	static final int CHUNK_SIZE = 256;
+
+	private final ColumnarKeyType keyType;
+
+	private final AtomicReference<Chunk> tail;
+
+	/**
+	 * Consumer-only: the chunk being read
+	 */
+	private Chunk head;
+
+	/**
+	 * Consumer-only: index of the next slot to read in {@link #head}
+	 */
+	private int headIndex;
+
+	/**
+	 * Consumer-only: the slots of {@link #head} before this index have been written
+	 */
+	private int headWritten;
+
+	/**
+	 * Consumer-only: value, timestamp and attachment of the last polled entry
+	 */
+	private V polledValue;
+	private long polledTimestamp;
+	private Object polledAttachment;
+
+	MpscColumnQueue(ColumnarKeyType keyType) {
+		this.keyType = keyType;
+		Chunk chunk = new Chunk(keyType);
+		this.tail = new AtomicReference<>(chunk);
+		this.head = chunk;
+	}
+
+	/**
+	 * @param primitiveKey key of a {@link ColumnarKeyType#LONG} or {@link ColumnarKeyType#INT} queue
+	 * @param objectKey    key of a {@link ColumnarKeyType#OBJECT} queue
+	 * @param timestamp    arbitrary value associated to the entry, returned by {@link #polledTimestamp()}
+	 * @param attachment   arbitrary object associated to the entry, returned by {@link #polledAttachment()}
+	 */
+	void offer(long primitiveKey, Object objectKey, V value, long timestamp, Object attachment) {
+		while (true) {
+			Chunk chunk = tail.get();
+			int index = chunk.reserved.getAndIncrement();
+			if (index < CHUNK_SIZE) {
+				keyType.set(chunk.keys, index, primitiveKey, objectKey);
+				chunk.values[index] = value;
+				chunk.timestamps[index] = timestamp;
+				chunk.attachments[index] = attachment;
+				chunk.written.incrementAndGet();
+				return;
+			}
+			nextChunk(chunk);
+		}
+	}
+
+	/**
+	 * Offer some entries. The entries are polled in order, but they can be interleaved with the entries of other
+	 * producers
+	 *
+	 * @param keys       key array of the type of this queue, with the same length of {@code values}
+	 * @param timestamp  arbitrary value associated to the entries, returned by {@link #polledTimestamp()}
+	 * @param attachment arbitrary object associated to the entries, returned by {@link #polledAttachment()}
+	 */
+	void offer(Object keys, V[] values, long timestamp, Object attachment) {
+		int offset = 0;
+		while (offset < values.length) {
+			Chunk chunk = tail.get();
+			int wanted = Math.min(values.length - offset, CHUNK_SIZE);
+			int index = chunk.reserved.getAndAdd(wanted);
+			if (index < CHUNK_SIZE) {
+				int count = Math.min(wanted, CHUNK_SIZE - index);
+				System.arraycopy(keys, offset, chunk.keys, index, count);
+				System.arraycopy(values, offset, chunk.values, index, count);
+				for (int i = index; i < index + count; i++) {
+					chunk.timestamps[i] = timestamp;
+					chunk.attachments[i] = attachment;
+				}
+				chunk.written.addAndGet(count);
+				offset += count;
+			}
+			if (offset < values.length) {
+				nextChunk(chunk);
+			}
+		}
+	}
+
+	/**
+	 * Link a new chunk after a full one, if no other producer did it, and make it the tail
+	 */
+	private void nextChunk(Chunk chunk) {
+		Chunk next = chunk.next.get();
+		if (next == null) {
+			Chunk created = new Chunk(keyType);
+			if (chunk.next.compareAndSet(null, created)) {
+				next = created;
+			} else {
+				next = chunk.next.get();
+			}
+		}
+		tail.compareAndSet(chunk, next);
+	}
+
+	/**
+	 * Move the next entry out of the queue. Its key is appended to {@code keyList}, and its value, timestamp and
+	 * attachment are returned by {@link #polledValue()}, {@link #polledTimestamp()} and {@link #polledAttachment()}
+	 *
+	 * @param keyList key list of the type of this queue
+	 * @return false if no entry is available
+	 */
+	boolean poll(Object keyList) {
+		while (headIndex == headWritten) {
+			if (headIndex == CHUNK_SIZE) {
+				Chunk next = head.next.get();
+				if (next == null) {
+					return false;
+				}
+				head = next;
+				headIndex = 0;
+				headWritten = 0;
+			} else {
+				// Read before the reserved slots: if they match, every slot reserved so far has been written
+				int written = head.written.get();
+				int reserved = Math.min(head.reserved.get(), CHUNK_SIZE);
+				if (written != reserved || written == headIndex) {
+					return false;
+				}
+				headWritten = written;
+			}
+		}
+		Chunk chunk = head;
+		int index = headIndex++;
+		keyType.moveTo(keyList, chunk.keys, index);
+		@SuppressWarnings("unchecked") V value = (V) chunk.values[index];
+		polledValue = value;
+		polledTimestamp = chunk.timestamps[index];
+		polledAttachment = chunk.attachments[index];
+		chunk.values[index] = null;
+		chunk.attachments[index] = null;
+		return true;
+	}
+
+	/**
+	 * @return the value of the entry moved by the last {@link #poll(Object)}
+	 */
+	V polledValue() {
+		return polledValue;
+	}
+
+	/**
+	 * @return the timestamp of the entry moved by the last {@link #poll(Object)}
+	 */
+	long polledTimestamp() {
+		return polledTimestamp;
+	}
+
+	/**
+	 * @return the attachment of the entry moved by the last {@link #poll(Object)}
+	 */
+	Object polledAttachment() {
+		return polledAttachment;
+	}
+
+	/**
+	 * @return true if no entry has been reserved after the last polled one
+	 */
+	boolean isEmpty() {
+		if (headIndex < CHUNK_SIZE) {
+			return Math.min(head.reserved.get(), CHUNK_SIZE) == headIndex;
+		}
+		Chunk next = head.next.get();
+		return next == null || next.reserved.get() == 0;
+	}
+
+	private static final class Chunk {
+
+		private final Object keys;
+		private final Object[] values = new Object[CHUNK_SIZE];
+		private final long[] timestamps = new long[CHUNK_SIZE];
+		private final Object[] attachments = new Object[CHUNK_SIZE];
+		/**
+		 * Slots reserved by the producers. It can exceed {@link #CHUNK_SIZE}, when the chunk is full
+		 */
+		private final AtomicInteger reserved = new AtomicInteger();
+		/**
+		 * Slots written by the producers
+		 */
+		private final AtomicInteger written = new AtomicInteger();
+		private final AtomicReference<Chunk> next = new AtomicReference<>();
+
+		private Chunk(ColumnarKeyType keyType) {
+			this.keys = keyType.newArray(CHUNK_SIZE);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package org.warp.commonutils.batch;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded lock-free multi-producer single-consumer queue.
+ * <p>
+ * Producers only perform a single atomic swap on the head, so {@link #offer(Object)} never retries under contention.
+ * {@link #poll()} and {@link #isEmpty()} must only be called by the single consumer thread.
+ * An element becomes visible to the consumer after its producer links it to the previous one, so the consumer may
+ * briefly see the queue as empty while a producer is between the two steps.
+ */
+final class MpscLinkedQueue<T> {
+
+	private final AtomicReference<Node<T>> head;
+
+	/**
+	 * Consumer-only: the last consumed node, whose value has already been cleared
+	 */
+	private Node<T> tail;
+
+	/**
+	 * Consumer-only: timestamp of the last polled element
+	 */
+	private long polledTimestamp;
+
+	/**
+	 * Consumer-only: attachment of the last polled element
+	 */
+	private Object polledAttachment;
+
+	MpscLinkedQueue() {
+		Node<T> stub = new Node<>(null, 0, null);
+		this.head = new AtomicReference<>(stub);
+		this.tail = stub;
+	}
+
+	/**
+	 * @param timestamp arbitrary value associated to the element, returned by {@link #polledTimestamp()}
+	 */
+	void offer(T value, long timestamp) {
+		offer(value, timestamp, null);
+	}
+
+	/**
+	 * @param timestamp  arbitrary value associated to the element, returned by {@link #polledTimestamp()}
+	 * @param attachment arbitrary object associated to the element, returned by {@link #polledAttachment()}
+	 */
+	void offer(T value, long timestamp, Object attachment) {
+		Node<T> node = new Node<>(value, timestamp, attachment);
+		Node<T> previous = head.getAndSet(node);
+		previous.next = node;
+	}
+
+	/**
+	 * @return the next element, or null if no element is available
+	 */
+	T poll() {
+		Node<T> next = tail.next;
+		if (next == null) {
+			return null;
+		}
+		T value = next.value;
+		next.value = null;
+		polledTimestamp = next.timestamp;
+		polledAttachment = next.attachment;
+		next.attachment = null;
+		tail = next;
+		return value;
+	}
+
+	/**
+	 * @return the timestamp of the element returned by the last {@link #poll()}
+	 */
+	long polledTimestamp() {
+		return polledTimestamp;
+	}
+
+	/**
+	 * @return the attachment of the element returned by the last {@link #poll()}
+	 */
+	Object polledAttachment() {
+		return polledAttachment;
+	}
+
+	boolean isEmpty() {
+		return tail.next == null;
+	}
+
+	private static final class Node<T> {
+
+		private T value;
+		private final long timestamp;
+		private Object attachment;
+		private volatile Node<T> next;
+
+		private Node(T value, long timestamp, Object attachment) {
+			this.value = value;
+			this.timestamp = timestamp;
+			this.attachment = attachment;
+		}
+	}
+}
@@ -1,16 +1,38 @@
 package org.warp.commonutils.batch;
 
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import org.jetbrains.annotations.Nullable;
 import org.warp.commonutils.concurrency.executor.BoundedExecutorService;
 import org.warp.commonutils.functional.TriConsumer;
 import org.warp.commonutils.type.IntWrapper;
 import org.warp.commonutils.type.ShortNamedThreadFactory;
 import org.warp.commonutils.type.VariableWrapper;
 
+/**
+ * Consume the elements of a push-style iterator in parallel, in chunks of {@code groupSize} elements.
+ * <p>
+ * Every element is consumed, including the ones of the last partial chunk.
+ * After the first failure of a chunk the iteration is stopped and the chunks that are not started yet are skipped;
+ * the call then waits for the running chunks and throws a {@link CompletionException} caused by the first failure,
+ * with the other failures attached as suppressed exceptions.
+ */
 public class ParallelUtils {
 
 	public static <K, V> void parallelize(Consumer<BiConsumer<K, V>> iterator,
@@ -19,38 +41,85 @@ public class ParallelUtils {
 			int groupSize,
 			BiConsumer<K, V> consumer) {
 		BoundedExecutorService parallelExecutor = BoundedExecutorService.create(maxQueueSize, parallelism, 0, TimeUnit.MILLISECONDS, new ShortNamedThreadFactory("ForEachParallel"), (a, b) -> {});
+		try {
+			parallelize(iterator, parallelExecutor, groupSize, consumer);
+		} finally {
+			parallelExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Consume the elements in parallel, in chunks of {@code groupSize} elements, on a long-lived executor.
+	 * The chunk arrays are recycled across the calls, and the call returns when its own chunks are done,
+	 * so the executor can be shared by concurrent calls.
+	 *
+	 * @param executor executor of the chunks. A {@link BoundedExecutorService} also limits the chunks waiting to be
+	 *                 consumed, by blocking the iteration
+	 * @throws CompletionException if a chunk failed or has been rejected by the executor
+	 */
+	public static <K, V> void parallelize(Consumer<BiConsumer<K, V>> iterator,
+			Executor executor,
+			int groupSize,
+			BiConsumer<K, V> consumer) {
 		final int CHUNK_SIZE = groupSize;
-		IntWrapper count = new IntWrapper(CHUNK_SIZE);
-		VariableWrapper<Object[]> keys = new VariableWrapper<>(new Object[CHUNK_SIZE]);
-		VariableWrapper<Object[]> values = new VariableWrapper<>(new Object[CHUNK_SIZE]);
-		iterator.accept((key, value) -> {
-			keys.var[CHUNK_SIZE - count.var] = key;
-			values.var[CHUNK_SIZE - count.var] = value;
-			count.var--;
-			if (count.var == 0) {
-				count.var = CHUNK_SIZE;
-				Object[] keysCopy = keys.var;
-				Object[] valuesCopy = values.var;
-				keys.var = new Object[CHUNK_SIZE];
-				values.var = new Object[CHUNK_SIZE];
-				try {
-					parallelExecutor.execute(() -> {
-						for (int i = 0; i < CHUNK_SIZE; i++) {
-							//noinspection unchecked
-							consumer.accept((K) keysCopy[i], (V) valuesCopy[i]);
+		var pendingChunks = new PendingChunks();
+		var failures = new ChunkFailures();
+		IntWrapper count = new IntWrapper(0);
+		VariableWrapper<Object[]> keys = new VariableWrapper<>(ChunkArrayPool.SHARED.take(CHUNK_SIZE));
+		VariableWrapper<Object[]> values = new VariableWrapper<>(ChunkArrayPool.SHARED.take(CHUNK_SIZE));
+		IntConsumer submitChunk = (size) -> {
+			Object[] keysCopy = keys.var;
+			Object[] valuesCopy = values.var;
+			keys.var = ChunkArrayPool.SHARED.take(CHUNK_SIZE);
+			values.var = ChunkArrayPool.SHARED.take(CHUNK_SIZE);
+			pendingChunks.register();
+			try {
+				executor.execute(() -> {
+					try {
+						if (!failures.isFailed()) {
+							for (int i = 0; i < size; i++) {
+								//noinspection unchecked
+								consumer.accept((K) keysCopy[i], (V) valuesCopy[i]);
+							}
 						}
-					});
-				} catch (RejectedExecutionException e) {
-					throw new CompletionException(e);
-				}
+					} catch (Throwable ex) {
+						failures.add(ex);
+					} finally {
+						ChunkArrayPool.SHARED.recycle(keysCopy);
+						ChunkArrayPool.SHARED.recycle(valuesCopy);
+						pendingChunks.arrive();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				pendingChunks.arrive();
+				failures.add(e);
+				throw failures.cancellation();
 			}
-		});
-		parallelExecutor.shutdown();
+		};
+		Throwable iterationFailure = null;
 		try {
-			parallelExecutor.awaitTermination(Integer.MAX_VALUE, TimeUnit.DAYS);
-		} catch (InterruptedException e) {
-			throw new RuntimeException("Parallel forEach interrupted", e);
+			iterator.accept((key, value) -> {
+				failures.throwIfFailed();
+				keys.var[count.var] = key;
+				values.var[count.var] = value;
+				count.var++;
+				if (count.var == CHUNK_SIZE) {
+					count.var = 0;
+					submitChunk.accept(CHUNK_SIZE);
+				}
+			});
+			if (count.var > 0) {
+				submitChunk.accept(count.var);
+			}
+		} catch (Throwable ex) {
+			iterationFailure = ex;
+		} finally {
+			// The current arrays are never submitted: the submitted ones have been replaced
+			ChunkArrayPool.SHARED.recycle(keys.var);
+			ChunkArrayPool.SHARED.recycle(values.var);
 		}
+		pendingChunks.await();
+		failures.rethrow(iterationFailure);
 	}
 
 	public static <K1, K2, V> void parallelize(Consumer<TriConsumer<K1, K2, V>> iterator,
@@ -59,41 +128,493 @@ public class ParallelUtils {
 			int groupSize,
 			TriConsumer<K1, K2, V> consumer) {
 		BoundedExecutorService parallelExecutor = BoundedExecutorService.create(maxQueueSize, parallelism, 0, TimeUnit.MILLISECONDS, new ShortNamedThreadFactory("ForEachParallel"), (a, b) -> {});
+		try {
+			parallelize(iterator, parallelExecutor, groupSize, consumer);
+		} finally {
+			parallelExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Consume the elements in parallel, in chunks of {@code groupSize} elements, on a long-lived executor
+	 *
+	 * @see #parallelize(Consumer, Executor, int, BiConsumer)
+	 */
+	public static <K1, K2, V> void parallelize(Consumer<TriConsumer<K1, K2, V>> iterator,
+			Executor executor,
+			int groupSize,
+			TriConsumer<K1, K2, V> consumer) {
 		final int CHUNK_SIZE = groupSize;
-		IntWrapper count = new IntWrapper(CHUNK_SIZE);
-		VariableWrapper<Object[]> keys1 = new VariableWrapper<>(new Object[CHUNK_SIZE]);
-		VariableWrapper<Object[]> keys2 = new VariableWrapper<>(new Object[CHUNK_SIZE]);
-		VariableWrapper<Object[]> values = new VariableWrapper<>(new Object[CHUNK_SIZE]);
-		iterator.accept((key1, key2, value) -> {
-			keys1.var[CHUNK_SIZE - count.var] = key1;
-			keys2.var[CHUNK_SIZE - count.var] = key2;
-			values.var[CHUNK_SIZE - count.var] = value;
-			count.var--;
-			if (count.var == 0) {
-				count.var = CHUNK_SIZE;
-				Object[] keys1Copy = keys1.var;
-				Object[] keys2Copy = keys2.var;
-				Object[] valuesCopy = values.var;
-				keys1.var = new Object[CHUNK_SIZE];
-				keys2.var = new Object[CHUNK_SIZE];
-				values.var = new Object[CHUNK_SIZE];
-				try {
-					parallelExecutor.execute(() -> {
-						for (int i = 0; i < CHUNK_SIZE; i++) {
-							//noinspection unchecked
-							consumer.accept((K1) keys1Copy[i], (K2) keys2Copy[i], (V) valuesCopy[i]);
+		var pendingChunks = new PendingChunks();
+		var failures = new ChunkFailures();
+		IntWrapper count = new IntWrapper(0);
+		VariableWrapper<Object[]> keys1 = new VariableWrapper<>(ChunkArrayPool.SHARED.take(CHUNK_SIZE));
+		VariableWrapper<Object[]> keys2 = new VariableWrapper<>(ChunkArrayPool.SHARED.take(CHUNK_SIZE));
+		VariableWrapper<Object[]> values = new VariableWrapper<>(ChunkArrayPool.SHARED.take(CHUNK_SIZE));
+		IntConsumer submitChunk = (size) -> {
+			Object[] keys1Copy = keys1.var;
+			Object[] keys2Copy = keys2.var;
+			Object[] valuesCopy = values.var;
+			keys1.var = ChunkArrayPool.SHARED.take(CHUNK_SIZE);
+			keys2.var = ChunkArrayPool.SHARED.take(CHUNK_SIZE);
+			values.var = ChunkArrayPool.SHARED.take(CHUNK_SIZE);
+			pendingChunks.register();
+			try {
+				executor.execute(() -> {
+					try {
+						if (!failures.isFailed()) {
+							for (int i = 0; i < size; i++) {
+								//noinspection unchecked
+								consumer.accept((K1) keys1Copy[i], (K2) keys2Copy[i], (V) valuesCopy[i]);
+							}
 						}
-					});
-				} catch (RejectedExecutionException e) {
-					throw new CompletionException(e);
+					} catch (Throwable ex) {
+						failures.add(ex);
+					} finally {
+						ChunkArrayPool.SHARED.recycle(keys1Copy);
+						ChunkArrayPool.SHARED.recycle(keys2Copy);
+						ChunkArrayPool.SHARED.recycle(valuesCopy);
+						pendingChunks.arrive();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				pendingChunks.arrive();
+				failures.add(e);
+				throw failures.cancellation();
+			}
+		};
+		Throwable iterationFailure = null;
+		try {
+			iterator.accept((key1, key2, value) -> {
+				failures.throwIfFailed();
+				keys1.var[count.var] = key1;
+				keys2.var[count.var] = key2;
+				values.var[count.var] = value;
+				count.var++;
+				if (count.var == CHUNK_SIZE) {
+					count.var = 0;
+					submitChunk.accept(CHUNK_SIZE);
 				}
+			});
+			if (count.var > 0) {
+				submitChunk.accept(count.var);
+			}
+		} catch (Throwable ex) {
+			iterationFailure = ex;
+		} finally {
+			// The current arrays are never submitted: the submitted ones have been replaced
+			ChunkArrayPool.SHARED.recycle(keys1.var);
+			ChunkArrayPool.SHARED.recycle(keys2.var);
+			ChunkArrayPool.SHARED.recycle(values.var);
+		}
+		pendingChunks.await();
+		failures.rethrow(iterationFailure);
+	}
+
+	/**
+	 * Map the elements in parallel, in chunks of {@code groupSize} elements, and pass the results to
+	 * {@code downstream} in the same order of the elements.
+	 * The results of the chunks completed out of order wait in a reorder buffer of at most {@code reorderWindow}
+	 * chunks: when the buffer is full the iteration waits until the oldest chunk is emitted.
+	 * {@code downstream} is never called concurrently, but it can be called by any worker thread.
+	 *
+	 * @param reorderWindow maximum number of chunks submitted and not emitted yet
+	 * @throws CompletionException if the mapper or the downstream consumer failed
+	 */
+	public static <K, V, R> void parallelizeOrdered(Consumer<BiConsumer<K, V>> iterator,
+			int maxQueueSize,
+			int parallelism,
+			int groupSize,
+			int reorderWindow,
+			BiFunction<K, V, R> mapper,
+			Consumer<R> downstream) {
+		BoundedExecutorService parallelExecutor = BoundedExecutorService.create(maxQueueSize, parallelism, 0, TimeUnit.MILLISECONDS, new ShortNamedThreadFactory("ForEachParallel"), (a, b) -> {});
+		try {
+			parallelizeOrdered(iterator, parallelExecutor, groupSize, reorderWindow, mapper, downstream);
+		} finally {
+			parallelExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Map the elements in parallel on a long-lived executor, and pass the results to {@code downstream} in the same
+	 * order of the elements
+	 *
+	 * @see #parallelizeOrdered(Consumer, int, int, int, int, BiFunction, Consumer)
+	 */
+	public static <K, V, R> void parallelizeOrdered(Consumer<BiConsumer<K, V>> iterator,
+			Executor executor,
+			int groupSize,
+			int reorderWindow,
+			BiFunction<K, V, R> mapper,
+			Consumer<R> downstream) {
+		if (reorderWindow < 1) {
+			throw new IllegalArgumentException("The reorder window must contain at least one chunk");
+		}
+		final int CHUNK_SIZE = groupSize;
+		var failures = new ChunkFailures();
+		var reorderBuffer = new ReorderBuffer<>(reorderWindow, downstream, failures);
+		IntWrapper count = new IntWrapper(0);
+		VariableWrapper<Object[]> keys = new VariableWrapper<>(ChunkArrayPool.SHARED.take(CHUNK_SIZE));
+		VariableWrapper<Object[]> values = new VariableWrapper<>(ChunkArrayPool.SHARED.take(CHUNK_SIZE));
+		IntConsumer submitChunk = (size) -> {
+			Object[] keysCopy = keys.var;
+			Object[] valuesCopy = values.var;
+			keys.var = ChunkArrayPool.SHARED.take(CHUNK_SIZE);
+			values.var = ChunkArrayPool.SHARED.take(CHUNK_SIZE);
+			long sequence = reorderBuffer.acquire();
+			try {
+				executor.execute(() -> {
+					int mapped = 0;
+					try {
+						if (!failures.isFailed()) {
+							for (int i = 0; i < size; i++) {
+								@SuppressWarnings("unchecked") K key = (K) keysCopy[i];
+								@SuppressWarnings("unchecked") V value = (V) valuesCopy[i];
+								valuesCopy[i] = mapper.apply(key, value);
+							}
+							mapped = size;
+						}
+					} catch (Throwable ex) {
+						failures.add(ex);
+					}
+					ChunkArrayPool.SHARED.recycle(keysCopy);
+					reorderBuffer.complete(sequence, valuesCopy, mapped);
+				});
+			} catch (RejectedExecutionException e) {
+				failures.add(e);
+				reorderBuffer.complete(sequence, valuesCopy, 0);
+				throw failures.cancellation();
 			}
-		});
-		parallelExecutor.shutdown();
+		};
+		Throwable iterationFailure = null;
 		try {
-			parallelExecutor.awaitTermination(Integer.MAX_VALUE, TimeUnit.DAYS);
-		} catch (InterruptedException e) {
-			throw new RuntimeException("Parallel forEach interrupted", e);
+			iterator.accept((key, value) -> {
+				failures.throwIfFailed();
+				keys.var[count.var] = key;
+				values.var[count.var] = value;
+				count.var++;
+				if (count.var == CHUNK_SIZE) {
+					count.var = 0;
+					submitChunk.accept(CHUNK_SIZE);
+				}
+			});
+			if (count.var > 0) {
+				submitChunk.accept(count.var);
+			}
+		} catch (Throwable ex) {
+			iterationFailure = ex;
+		} finally {
+			// The current arrays are never submitted: the submitted ones have been replaced
+			ChunkArrayPool.SHARED.recycle(keys.var);
+			ChunkArrayPool.SHARED.recycle(values.var);
+		}
+		reorderBuffer.awaitEmitted();
+		failures.rethrow(iterationFailure);
+	}
+
+	/**
+	 * Consume the elements of a splittable source in parallel on a {@link ForkJoinPool}.
+	 * The source is split recursively until the parts contain at most {@code groupSize} elements, or until it can't
+	 * be split anymore, and idle workers steal the parts that are not started yet, so both the traversal and the
+	 * consumer run on all the workers of the pool.
+	 * After the first failure the parts stop consuming their elements, and the parts that are not started yet are
+	 * cancelled.
+	 *
+	 * @param groupSize minimum number of elements that is worth splitting
+	 * @throws CompletionException caused by the first failure, with the other failures attached as suppressed
+	 *                             exceptions
+	 */
+	public static <T> void parallelize(Spliterator<T> source, ForkJoinPool pool, int groupSize, Consumer<T> consumer) {
+		if (groupSize < 1) {
+			throw new IllegalArgumentException("The group size must be positive");
+		}
+		var failures = new ChunkFailures();
+		pool.invoke(new SpliteratorAction<>(source, groupSize, consumer, failures));
+		failures.rethrow(null);
+	}
+
+	/**
+	 * Consume the entries of a map in parallel on a {@link ForkJoinPool}
+	 *
+	 * @see #parallelize(Spliterator, ForkJoinPool, int, Consumer)
+	 */
+	public static <K, V> void parallelize(Map<K, V> map, ForkJoinPool pool, int groupSize, BiConsumer<K, V> consumer) {
+		parallelize(map.entrySet().spliterator(), pool, groupSize, entry -> consumer.accept(entry.getKey(), entry.getValue()));
+	}
+
+	/**
+	 * Consume the entries of a map in parallel on the common {@link ForkJoinPool}
+	 *
+	 * @see #parallelize(Spliterator, ForkJoinPool, int, Consumer)
+	 */
+	public static <K, V> void parallelize(Map<K, V> map, int groupSize, BiConsumer<K, V> consumer) {
+		parallelize(map, ForkJoinPool.commonPool(), groupSize, consumer);
+	}
+
+	/**
+	 * Splits its part of the source, forking the prefixes, and consumes what remains
+	 */
+	private static final class SpliteratorAction<T> extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient Spliterator<T> spliterator;
+		private final int groupSize;
+		private final transient Consumer<T> consumer;
+		private final transient ChunkFailures failures;
+
+		private SpliteratorAction(Spliterator<T> spliterator, int groupSize, Consumer<T> consumer, ChunkFailures failures) {
+			this.spliterator = spliterator;
+			this.groupSize = groupSize;
+			this.consumer = consumer;
+			this.failures = failures;
+		}
+
+		/**
+		 * Never completes exceptionally: the failures are collected by {@link #failures}
+		 */
+		@Override
+		protected void compute() {
+			ArrayList<SpliteratorAction<T>> forked = null;
+			try {
+				Spliterator<T> prefix;
+				while (!failures.isFailed() && spliterator.estimateSize() > groupSize
+						&& (prefix = spliterator.trySplit()) != null) {
+					var task = new SpliteratorAction<>(prefix, groupSize, consumer, failures);
+					task.fork();
+					if (forked == null) {
+						forked = new ArrayList<>();
+					}
+					forked.add(task);
+				}
+				//noinspection StatementWithEmptyBody
+				while (!failures.isFailed() && spliterator.tryAdvance(consumer)) {
+				}
+			} catch (Throwable ex) {
+				failures.add(ex);
+			} finally {
+				if (forked != null) {
+					// The last forked tasks are the most likely to be still in the local queue, so they are joined first
+					for (int i = forked.size() - 1; i >= 0; i--) {
+						var task = forked.get(i);
+						if (failures.isFailed()) {
+							// Succeeds only if the task isn't started yet
+							task.cancel(false);
+						}
+						task.quietlyJoin();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the chunks of a single call that are not done yet, so that the call can wait for them without waiting
+	 * for the termination of the executor
+	 */
+	private static final class PendingChunks {
+
+		/**
+		 * The caller is a party too, so the latch can't open before the caller has submitted every chunk
+		 */
+		private final AtomicInteger pending = new AtomicInteger(1);
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		private void register() {
+			pending.incrementAndGet();
+		}
+
+		private void arrive() {
+			if (pending.decrementAndGet() == 0) {
+				done.countDown();
+			}
+		}
+
+		private void await() {
+			arrive();
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Parallel forEach interrupted", e);
+			}
+		}
+	}
+
+	/**
+	 * Failures of the chunks of a single call
+	 */
+	private static final class ChunkFailures {
+
+		private volatile Throwable first;
+		private final ConcurrentLinkedQueue<Throwable> others = new ConcurrentLinkedQueue<>();
+		private volatile CancellationException cancellation;
+
+		private boolean isFailed() {
+			return first != null;
+		}
+
+		private void add(Throwable failure) {
+			synchronized (this) {
+				if (first == null) {
+					first = failure;
+					return;
+				}
+			}
+			others.add(failure);
+		}
+
+		/**
+		 * @return the exception thrown to stop the iteration after a failure
+		 */
+		private CancellationException cancellation() {
+			CancellationException cancellation = this.cancellation;
+			if (cancellation == null) {
+				cancellation = new CancellationException("Parallel forEach stopped after a failure");
+				this.cancellation = cancellation;
+			}
+			return cancellation;
+		}
+
+		/**
+		 * Called only by the iterating thread
+		 */
+		private void throwIfFailed() {
+			if (first != null) {
+				throw cancellation();
+			}
+		}
+
+		/**
+		 * Called after every chunk is done
+		 *
+		 * @param iterationFailure exception thrown by the iteration, if any
+		 */
+		private void rethrow(@Nullable Throwable iterationFailure) {
+			Throwable first = this.first;
+			if (first == null) {
+				if (iterationFailure instanceof RuntimeException) {
+					throw (RuntimeException) iterationFailure;
+				} else if (iterationFailure instanceof Error) {
+					throw (Error) iterationFailure;
+				} else if (iterationFailure != null) {
+					throw new CompletionException(iterationFailure);
+				}
+				return;
+			}
+			var exception = new CompletionException(first);
+			for (Throwable other : others) {
+				exception.addSuppressed(other);
+			}
+			if (iterationFailure != null && !isCancellation(iterationFailure)) {
+				exception.addSuppressed(iterationFailure);
+			}
+			throw exception;
+		}
+
+		private boolean isCancellation(Throwable failure) {
+			CancellationException cancellation = this.cancellation;
+			for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+				if (cause == cancellation) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Emits the results of the chunks in sequence order. The thread that completes the next expected chunk becomes
+	 * the emitter, and keeps emitting until it finds a chunk that isn't completed yet
+	 */
+	private static final class ReorderBuffer<R> {
+
+		private final int window;
+		private final Semaphore freeSlots;
+		private final Object[][] results;
+		private final int[] sizes;
+		private final Consumer<R> downstream;
+		private final ChunkFailures failures;
+		private long nextSequence;
+		private long nextToEmit;
+		private boolean emitting;
+
+		private ReorderBuffer(int window, Consumer<R> downstream, ChunkFailures failures) {
+			this.window = window;
+			this.freeSlots = new Semaphore(window);
+			this.results = new Object[window][];
+			this.sizes = new int[window];
+			this.downstream = downstream;
+			this.failures = failures;
+		}
+
+		/**
+		 * Called only by the iterating thread
+		 *
+		 * @return the sequence number of the next chunk
+		 */
+		private long acquire() {
+			try {
+				freeSlots.acquire();
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Parallel forEach interrupted", e);
+			}
+			return nextSequence++;
+		}
+
+		/**
+		 * @param size number of results of the chunk. After a failure the following chunks are completed and skipped
+		 */
+		private void complete(long sequence, Object[] chunkResults, int size) {
+			synchronized (this) {
+				int slot = (int) (sequence % window);
+				results[slot] = chunkResults;
+				sizes[slot] = size;
+				if (emitting) {
+					return;
+				}
+				emitting = true;
+			}
+			while (true) {
+				Object[] ready;
+				int readySize;
+				synchronized (this) {
+					int slot = (int) (nextToEmit % window);
+					ready = results[slot];
+					if (ready == null) {
+						emitting = false;
+						return;
+					}
+					readySize = sizes[slot];
+					results[slot] = null;
+					nextToEmit++;
+				}
+				try {
+					if (!failures.isFailed()) {
+						for (int i = 0; i < readySize; i++) {
+							@SuppressWarnings("unchecked") R result = (R) ready[i];
+							downstream.accept(result);
+						}
+					}
+				} catch (Throwable ex) {
+					failures.add(ex);
+				} finally {
+					ChunkArrayPool.SHARED.recycle(ready);
+					freeSlots.release();
+				}
+			}
+		}
+
+		/**
+		 * Wait until every submitted chunk has been emitted
+		 */
+		private void awaitEmitted() {
+			try {
+				freeSlots.acquire(window);
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Parallel forEach interrupted", e);
+			}
+			freeSlots.release(window);
 		}
 	}
 }
@@ -0,0 +1,145 @@
+package org.warp.commonutils.concurrency.executor;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.warp.commonutils.concurrency.executor.ReadWriteExecutor.LockMode;
+
+/**
+ * An Executor which starts asynchronous tasks without ever suspending the calling thread.
+ * A task is considered running from the moment its supplier is called until the returned future completes.
+ * Tasks executed in {@link LockMode#WRITE} mode never overlap any other task,
+ * while tasks executed in {@link LockMode#READ} mode can overlap each other.
+ * A task that can't start immediately is queued in FIFO order, and it's started by the thread that completes the
+ * last task that was blocking it.
+ * Executing a task has the same memory semantics as locking and releasing a java.util.concurrent.locks.{@link
+ * java.util.concurrent.locks.Lock}.
+ */
+public class AsyncReadWriteExecutor {
+
+	/**
+	 * Tasks granted while releasing a lock are started from this per-thread queue instead of recursively,
+	 * so that long chains of tasks that complete synchronously don't overflow the stack
+	 */
+	private static final ThreadLocal<Trampoline> TRAMPOLINE = ThreadLocal.withInitial(Trampoline::new);
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ArrayDeque<QueuedTask<?>> queue = new ArrayDeque<>();
+	private int readers;
+	private boolean writing;
+
+	public AsyncReadWriteExecutor() {
+	}
+
+	/**
+	 * @param task supplier of the asynchronous task. It may be called on the caller thread or on the thread that
+	 *             completes a previous task
+	 * @return a future that completes with the result of the task, after the lock has been released
+	 */
+	public <R> CompletableFuture<R> execute(LockMode lockMode, Supplier<CompletableFuture<R>> task) {
+		var queuedTask = new QueuedTask<>(lockMode, task);
+		boolean startNow;
+		lock.lock();
+		try {
+			// Tasks can't overtake the queue, otherwise readers could starve writers
+			startNow = queue.isEmpty() && tryAcquire(lockMode);
+			if (!startNow) {
+				queue.add(queuedTask);
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (startNow) {
+			queuedTask.start();
+		}
+		return queuedTask.result;
+	}
+
+	private boolean tryAcquire(LockMode lockMode) {
+		if (writing) {
+			return false;
+		}
+		if (lockMode == LockMode.READ) {
+			readers++;
+			return true;
+		} else if (readers == 0) {
+			writing = true;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	private void release(LockMode lockMode) {
+		Trampoline trampoline = TRAMPOLINE.get();
+		lock.lock();
+		try {
+			if (lockMode == LockMode.READ) {
+				readers--;
+			} else {
+				writing = false;
+			}
+			QueuedTask<?> next;
+			while ((next = queue.peek()) != null && tryAcquire(next.lockMode)) {
+				trampoline.pending.add(queue.poll());
+			}
+		} finally {
+			lock.unlock();
+		}
+		trampoline.drain();
+	}
+
+	private final class QueuedTask<R> {
+
+		private final LockMode lockMode;
+		private final Supplier<CompletableFuture<R>> task;
+		private final CompletableFuture<R> result = new CompletableFuture<>();
+
+		private QueuedTask(LockMode lockMode, Supplier<CompletableFuture<R>> task) {
+			this.lockMode = lockMode;
+			this.task = task;
+		}
+
+		private void start() {
+			CompletableFuture<R> future;
+			try {
+				future = Objects.requireNonNull(task.get(), "The task returned a null future");
+			} catch (Throwable ex) {
+				release(lockMode);
+				result.completeExceptionally(ex);
+				return;
+			}
+			future.whenComplete((value, error) -> {
+				release(lockMode);
+				if (error != null) {
+					result.completeExceptionally(error);
+				} else {
+					result.complete(value);
+				}
+			});
+		}
+	}
+
+	private static final class Trampoline {
+
+		private final ArrayDeque<QueuedTask<?>> pending = new ArrayDeque<>();
+		private boolean draining;
+
+		private void drain() {
+			if (draining) {
+				return;
+			}
+			draining = true;
+			try {
+				QueuedTask<?> task;
+				while ((task = pending.poll()) != null) {
+					task.start();
+				}
+			} finally {
+				draining = false;
+			}
+		}
+	}
+}
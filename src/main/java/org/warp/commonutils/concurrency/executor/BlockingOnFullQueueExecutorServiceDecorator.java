@@ -1,19 +1,26 @@
 package org.warp.commonutils.concurrency.executor;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 import javax.annotation.Nonnull;
@@ -23,13 +30,77 @@ import org.jetbrains.annotations.Nullable;
 public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecutorService {
 
 	private final void updateQueue() {
-		var queueSize = queueSizeSupplier.get();
-		synchronized (queueSizeStatusLock) {
+		var queueSize = getQueueSize();
+		queueSizeStatusLock.lock();
+		try {
 			if (queueSizeStatus != null) queueSizeStatus.accept(queueSize >= maximumTaskNumber, queueSize);
+		} finally {
+			queueSizeStatusLock.unlock();
 		}
 	};
 
-	private static final class PermitReleasingRunnableDecorator implements Runnable {
+	/**
+	 * @return true if the task, queued at {@code enqueueNanos}, waited longer than the queued task ttl
+	 */
+	private boolean isExpired(long enqueueNanos, long startNanos) {
+		if (queuedTaskTtlNanos == Long.MAX_VALUE || startNanos - enqueueNanos <= queuedTaskTtlNanos) {
+			return false;
+		}
+		expiredTasks.increment();
+		metrics.recordExpiration();
+		return true;
+	}
+
+	/**
+	 * @return the start time of the task
+	 */
+	private long onTaskStarted(long enqueueNanos) {
+		long startNanos = System.nanoTime();
+		metrics.recordQueueWait(startNanos - enqueueNanos);
+		return startNanos;
+	}
+
+	/**
+	 * Records the run time of a task, and updates the adaptive limit with its latency. Samples of the adaptive limit
+	 * are skipped while another thread is updating it, so that the completing tasks never wait for each other
+	 *
+	 * @param ran false if the task expired without running
+	 */
+	private void onTaskCompleted(long enqueueNanos, long startNanos, boolean ran) {
+		long endNanos = System.nanoTime();
+		if (ran) {
+			metrics.recordRun(endNanos - startNanos);
+		}
+		var adaptiveLimit = this.adaptiveLimit;
+		if (adaptiveLimit == null || ignoreTaskLimit || !adaptiveLimitLock.tryLock()) {
+			return;
+		}
+		try {
+			int currentLimit = this.maximumTaskNumber;
+			int newLimit = adaptiveLimit.onSample(endNanos - enqueueNanos,
+					currentLimit - taskLimit.availablePermits()
+			);
+			if (newLimit > currentLimit) {
+				taskLimit.release(newLimit - currentLimit);
+				drainPendingTasks();
+			} else if (newLimit < currentLimit) {
+				// The permits already taken are not revoked: the running tasks return them as usual
+				taskLimit.reducePermits(currentLimit - newLimit);
+			}
+			this.maximumTaskNumber = newLimit;
+		} finally {
+			adaptiveLimitLock.unlock();
+		}
+	}
+
+	private RejectedExecutionException expiredException(Object task) {
+		return new RejectedExecutionException(String.format("Task '%s' expired in the queue of executor '%s'",
+				task,
+				this.delegate
+		));
+	}
+
+	private final class PermitReleasingRunnableDecorator implements Runnable {
 
 		@Nonnull
 		private final Runnable delegate;
@@ -40,10 +111,21 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 		@Nonnull
 		private final Semaphore semaphore;
 
-		private PermitReleasingRunnableDecorator(@Nonnull final Runnable task, @Nonnull final Runnable queueSizeUpdater, @Nonnull final Semaphore semaphoreToRelease) {
+		private final long enqueueNanos = System.nanoTime();
+
+		/**
+		 * Fail instead of silently dropping the task when it expires, so that the returned future is completed
+		 */
+		private final boolean failIfExpired;
+
+		private PermitReleasingRunnableDecorator(@Nonnull final Runnable task,
+				@Nonnull final Runnable queueSizeUpdater,
+				@Nonnull final Semaphore semaphoreToRelease,
+				boolean failIfExpired) {
 			this.delegate = task;
 			this.queueSizeUpdater = queueSizeUpdater;
 			this.semaphore = semaphoreToRelease;
+			this.failIfExpired = failIfExpired;
 		}
 
 		@Override
@@ -52,9 +134,44 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 				queueSizeUpdater.run();
 			} finally {
 				// however execution goes, release permit for next task
-				this.semaphore.release();
-
+				if (!holdPermitWhileRunning) {
+					this.semaphore.release();
+					drainPendingTasks();
+				}
+			}
+			long startNanos = onTaskStarted(enqueueNanos);
+			// The tasks of a CompletableFuture can't be failed from outside, so they never expire
+			boolean expired = !(this.delegate instanceof CompletableFuture.AsynchronousCompletionTask)
+					&& isExpired(enqueueNanos, startNanos);
+			try {
+				if (expired) {
+					failExpired();
+					return;
+				}
 				this.delegate.run();
+			} finally {
+				if (holdPermitWhileRunning) {
+					heldPermits.decrementAndGet();
+					this.semaphore.release();
+					drainPendingTasks();
+				}
+				onTaskCompleted(enqueueNanos, startNanos, !expired);
+			}
+		}
+
+		/**
+		 * Fails the future of an expired task, if the task is a future, so that nobody waits for it forever
+		 */
+		private void failExpired() {
+			if (this.delegate instanceof AsyncTask) {
+				((AsyncTask<?>) this.delegate).future.completeExceptionally(expiredException(this.delegate));
+			} else if (this.delegate instanceof ForkJoinTask) {
+				((ForkJoinTask<?>) this.delegate).completeExceptionally(expiredException(this.delegate));
+			} else if (this.delegate instanceof Future) {
+				((Future<?>) this.delegate).cancel(false);
+			}
+			if (failIfExpired) {
+				throw expiredException(this.delegate);
 			}
 		}
 
@@ -64,7 +181,7 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 		}
 	}
 
-	private static final class PermitReleasingCallableDecorator<T> implements Callable<T> {
+	private final class PermitReleasingCallableDecorator<T> implements Callable<T> {
 
 		@Nonnull
 		private final Callable<T> delegate;
@@ -75,6 +192,8 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 		@Nonnull
 		private final Semaphore semaphore;
 
+		private final long enqueueNanos = System.nanoTime();
+
 		private PermitReleasingCallableDecorator(@Nonnull final Callable<T> task, @Nonnull final Runnable queueSizeUpdater, @Nonnull final Semaphore semaphoreToRelease) {
 			this.delegate = task;
 			this.queueSizeUpdater = queueSizeUpdater;
@@ -87,9 +206,25 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 				queueSizeUpdater.run();
 			} finally {
 				// however execution goes, release permit for next task
-				this.semaphore.release();
-
+				if (!holdPermitWhileRunning) {
+					this.semaphore.release();
+					drainPendingTasks();
+				}
+			}
+			long startNanos = onTaskStarted(enqueueNanos);
+			boolean expired = isExpired(enqueueNanos, startNanos);
+			try {
+				if (expired) {
+					throw expiredException(this.delegate);
+				}
 				return this.delegate.call();
+			} finally {
+				if (holdPermitWhileRunning) {
+					heldPermits.decrementAndGet();
+					this.semaphore.release();
+					drainPendingTasks();
+				}
+				onTaskCompleted(enqueueNanos, startNanos, !expired);
 			}
 		}
 
@@ -102,76 +237,424 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 	private volatile boolean ignoreTaskLimit;
 
 	@Nonnull
-	private final Semaphore taskLimit;
+	private final ResizableSemaphore taskLimit;
 
 	@Nonnull
 	private final Duration timeout;
 
-	private final int maximumTaskNumber;
+	/**
+	 * Maximum time spent by a task in the queue, {@link Long#MAX_VALUE} if the tasks never expire
+	 */
+	private final long queuedTaskTtlNanos;
+
+	private final LongAdder expiredTasks = new LongAdder();
+
+	private final BoundedExecutorMetricsRecorder metrics = new BoundedExecutorMetricsRecorder();
+
+	/**
+	 * Tasks passed to {@link #submitAsync(Callable)} that wait for a permit, in FIFO order
+	 */
+	private final ConcurrentLinkedQueue<AsyncTask<?>> pendingTasks = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Size of {@link #pendingTasks}, incremented before adding a task so that it never exceeds the maximum
+	 */
+	private final AtomicInteger pendingTasksCount = new AtomicInteger();
+
+	private final int maximumPendingTasks;
+
+	/**
+	 * Keep the permit of a task until it completes, limiting the running tasks instead of the queued ones
+	 */
+	private final boolean holdPermitWhileRunning;
+
+	/**
+	 * Current limit of the tasks, changed at runtime if {@link #adaptiveLimit} is set
+	 */
+	private volatile int maximumTaskNumber;
+
+	@Nullable
+	private final GradientConcurrencyLimit adaptiveLimit;
 
 	@Nonnull
+	private final ReentrantLock adaptiveLimitLock = new ReentrantLock();
+
+	@Nullable
 	private final Supplier<Integer> queueSizeSupplier;
 
+	/**
+	 * Number of tasks that hold a permit, tracked only if {@link #holdPermitWhileRunning} is true
+	 */
+	private final AtomicInteger heldPermits = new AtomicInteger();
+
 	private final @Nullable BiConsumer<Boolean, Integer> queueSizeStatus;
 
 	@Nonnull
-	private final Object queueSizeStatusLock;
+	private final ReentrantLock queueSizeStatusLock;
 
 	@Nonnull
 	private final ExecutorService delegate;
 
 	public BlockingOnFullQueueExecutorServiceDecorator(@Nonnull final ExecutorService executor, final int maximumTaskNumber, @Nonnull final Duration maximumTimeout, @Nonnull Supplier<Integer> queueSizeSupplier, @Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		this(executor, maximumTaskNumber, maximumTimeout, Duration.ZERO, queueSizeSupplier, queueSizeStatus);
+	}
+
+	public BlockingOnFullQueueExecutorServiceDecorator(@Nonnull final ExecutorService executor,
+			final int maximumTaskNumber,
+			@Nonnull final Duration maximumTimeout,
+			@Nonnull final Duration queuedTaskTtl,
+			@Nonnull Supplier<Integer> queueSizeSupplier,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		this(executor, maximumTaskNumber, maximumTimeout, queuedTaskTtl, false, queueSizeSupplier, queueSizeStatus);
+	}
+
+	/**
+	 * @param queuedTaskTtl maximum time spent by a task in the queue. A task that waited longer is not run:
+	 *                      tasks passed to {@link #execute(Runnable)} are dropped, the futures of the submitted tasks
+	 *                      fail with a {@link RejectedExecutionException}.
+	 *                      Zero, or a duration too big to be represented in nanoseconds, disables the expiration
+	 * @param holdPermitWhileRunning if true, {@code maximumTaskNumber} limits the tasks that are queued or running,
+	 *                               instead of the queued ones only. Required when the executor starts every task
+	 *                               immediately, like an executor of virtual threads
+	 * @param queueSizeSupplier      size of the queue of the executor, or null to report the number of tasks that
+	 *                               hold a permit, if {@code holdPermitWhileRunning} is true
+	 */
+	public BlockingOnFullQueueExecutorServiceDecorator(@Nonnull final ExecutorService executor,
+			final int maximumTaskNumber,
+			@Nonnull final Duration maximumTimeout,
+			@Nonnull final Duration queuedTaskTtl,
+			boolean holdPermitWhileRunning,
+			@Nullable Supplier<Integer> queueSizeSupplier,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		this(executor,
+				maximumTaskNumber,
+				maximumTaskNumber,
+				maximumTimeout,
+				queuedTaskTtl,
+				holdPermitWhileRunning,
+				queueSizeSupplier,
+				queueSizeStatus
+		);
+	}
+
+	/**
+	 * @param maximumPendingTasks maximum number of tasks passed to {@link #submitAsync(Callable)} that wait for a
+	 *                            permit, in addition to the {@code maximumTaskNumber} tasks that hold one
+	 * @see #BlockingOnFullQueueExecutorServiceDecorator(ExecutorService, int, Duration, Duration, boolean, Supplier, BiConsumer)
+	 */
+	public BlockingOnFullQueueExecutorServiceDecorator(@Nonnull final ExecutorService executor,
+			final int maximumTaskNumber,
+			final int maximumPendingTasks,
+			@Nonnull final Duration maximumTimeout,
+			@Nonnull final Duration queuedTaskTtl,
+			boolean holdPermitWhileRunning,
+			@Nullable Supplier<Integer> queueSizeSupplier,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		this(executor,
+				maximumTaskNumber,
+				null,
+				maximumPendingTasks,
+				maximumTimeout,
+				queuedTaskTtl,
+				holdPermitWhileRunning,
+				queueSizeSupplier,
+				queueSizeStatus
+		);
+	}
+
+	/**
+	 * Create a decorator whose limit of tasks is adapted at runtime to the latency of the completed tasks.
+	 * The status callback reports the queue as full when the current limit is reached
+	 *
+	 * @see #BlockingOnFullQueueExecutorServiceDecorator(ExecutorService, int, Duration, Duration, boolean, Supplier, BiConsumer)
+	 * @see #getTaskLimit()
+	 */
+	public BlockingOnFullQueueExecutorServiceDecorator(@Nonnull final ExecutorService executor,
+			@Nonnull final GradientConcurrencyLimit adaptiveLimit,
+			@Nonnull final Duration maximumTimeout,
+			@Nonnull final Duration queuedTaskTtl,
+			boolean holdPermitWhileRunning,
+			@Nullable Supplier<Integer> queueSizeSupplier,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		this(executor,
+				Objects.requireNonNull(adaptiveLimit, "'adaptiveLimit' must not be null").getLimit(),
+				adaptiveLimit,
+				adaptiveLimit.getLimit(),
+				maximumTimeout,
+				queuedTaskTtl,
+				holdPermitWhileRunning,
+				queueSizeSupplier,
+				queueSizeStatus
+		);
+	}
+
+	private BlockingOnFullQueueExecutorServiceDecorator(@Nonnull final ExecutorService executor,
+			final int maximumTaskNumber,
+			@Nullable final GradientConcurrencyLimit adaptiveLimit,
+			final int maximumPendingTasks,
+			@Nonnull final Duration maximumTimeout,
+			@Nonnull final Duration queuedTaskTtl,
+			boolean holdPermitWhileRunning,
+			@Nullable Supplier<Integer> queueSizeSupplier,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
 		this.delegate = Objects.requireNonNull(executor, "'executor' must not be null");
 		if (maximumTaskNumber < 0) {
 			throw new IllegalArgumentException(String.format("At least zero tasks must be permitted, not '%d'", maximumTaskNumber));
 		} else if (maximumTaskNumber == 0) {
 			ignoreTaskLimit = true;
 		}
+		if (maximumPendingTasks < 0) {
+			throw new IllegalArgumentException(String.format("At least zero pending tasks must be permitted, not '%d'",
+					maximumPendingTasks
+			));
+		}
+		this.maximumPendingTasks = maximumPendingTasks;
 		this.timeout = Objects.requireNonNull(maximumTimeout, "'maximumTimeout' must not be null");
 		if (this.timeout.isNegative()) {
 			throw new IllegalArgumentException("'maximumTimeout' must not be negative");
 		}
+		Objects.requireNonNull(queuedTaskTtl, "'queuedTaskTtl' must not be null");
+		if (queuedTaskTtl.isNegative()) {
+			throw new IllegalArgumentException("'queuedTaskTtl' must not be negative");
+		}
+		this.queuedTaskTtlNanos = queuedTaskTtl.isZero() ? Long.MAX_VALUE : safeToNanos(queuedTaskTtl);
+		if (queueSizeSupplier == null && !holdPermitWhileRunning) {
+			throw new IllegalArgumentException("'queueSizeSupplier' is required when the permits are released on start");
+		}
+		this.holdPermitWhileRunning = holdPermitWhileRunning;
 		this.maximumTaskNumber = maximumTaskNumber;
+		this.adaptiveLimit = adaptiveLimit;
 		this.queueSizeSupplier = queueSizeSupplier;
 		this.queueSizeStatus = queueSizeStatus;
-		this.queueSizeStatusLock = new Object();
-		this.taskLimit = new Semaphore(maximumTaskNumber);
+		this.queueSizeStatusLock = new ReentrantLock();
+		this.taskLimit = new ResizableSemaphore(maximumTaskNumber);
+	}
+
+	private static long safeToNanos(Duration duration) {
+		try {
+			return duration.toNanos();
+		} catch (ArithmeticException ex) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private int getQueueSize() {
+		return queueSizeSupplier != null ? queueSizeSupplier.get() : heldPermits.get();
 	}
 
 	private void preExecute(Object command) {
 		Objects.requireNonNull(command, "'command' must not be null");
+		try {
+			if (!admit(safeToNanos(this.timeout))) {
+				metrics.recordRejection(true);
+				throw busy();
+			}
+		} catch (final InterruptedException e) {
+			// restore interrupt status
+			Thread.currentThread().interrupt();
+			metrics.recordRejection(false);
+			throw new RejectedExecutionException(e);
+		}
+	}
+
+	/**
+	 * @return false if no permit became available within {@code timeoutNanos}
+	 */
+	private boolean admit(long timeoutNanos) throws InterruptedException {
 		if (!ignoreTaskLimit) {
-			try {
-				if (this.taskLimit.availablePermits() == 0) {
-					synchronized (queueSizeStatusLock) {
-						if (queueSizeStatus != null)
-							queueSizeStatus.accept(true,
-									maximumTaskNumber + (taskLimit.hasQueuedThreads() ? taskLimit.getQueueLength() : 0)
-							);
-					}
+			if (this.taskLimit.availablePermits() <= 0) {
+				queueSizeStatusLock.lock();
+				try {
+					if (queueSizeStatus != null)
+						queueSizeStatus.accept(true,
+								maximumTaskNumber + (taskLimit.hasQueuedThreads() ? taskLimit.getQueueLength() : 0)
+						);
+				} finally {
+					queueSizeStatusLock.unlock();
+				}
+			}
+			// attempt to acquire permit for task execution
+			if (!this.taskLimit.tryAcquire(timeoutNanos, NANOSECONDS)) {
+				return false;
+			}
+		}
+		if (holdPermitWhileRunning) {
+			heldPermits.incrementAndGet();
+		}
+		return true;
+	}
+
+	private RejectedExecutionException busy() {
+		return new RejectedExecutionException(String.format("Executor '%s' busy", this.delegate));
+	}
+
+	/**
+	 * Returns the permit of a task rejected by the delegate executor
+	 */
+	private void onDelegateRejected() {
+		metrics.recordRejection(false);
+		if (holdPermitWhileRunning) {
+			heldPermits.decrementAndGet();
+		}
+		this.taskLimit.release();
+		drainPendingTasks();
+	}
+
+	/**
+	 * Submit a task without ever blocking the calling thread.
+	 * <p>
+	 * If no permit is available, the task waits in a list of pending tasks, bounded by {@code maximumPendingTasks},
+	 * and enters the executor as soon as a permit is released. The pending tasks enter the executor in FIFO order.
+	 * The queued task ttl starts when the task enters the executor.
+	 * Cancelling the returned future removes the task from the pending tasks, but doesn't interrupt it if it's
+	 * running.
+	 *
+	 * @return a future completed with the result of the task, or with a {@link RejectedExecutionException} if the
+	 * list of pending tasks is full, the task expired, or the executor is shut down
+	 */
+	@Override
+	public <T> CompletableFuture<T> submitAsync(@NotNull Callable<T> task) {
+		var asyncTask = new AsyncTask<>(Objects.requireNonNull(task, "'task' must not be null"));
+		if (ignoreTaskLimit) {
+			if (holdPermitWhileRunning) {
+				heldPermits.incrementAndGet();
+			}
+			dispatch(asyncTask);
+		} else if (pendingTasksCount.get() == 0 && taskLimit.tryAcquire()) {
+			if (holdPermitWhileRunning) {
+				heldPermits.incrementAndGet();
+			}
+			dispatch(asyncTask);
+		} else if (tryIncrementPendingTasks()) {
+			pendingTasks.add(asyncTask);
+			// A permit may have been released before the task was added
+			drainPendingTasks();
+		} else {
+			metrics.recordRejection(false);
+			asyncTask.future.completeExceptionally(new RejectedExecutionException(String.format(
+					"Executor '%s' busy, %d tasks are pending",
+					this.delegate,
+					maximumPendingTasks
+			)));
+		}
+		return asyncTask.future;
+	}
+
+	private boolean tryIncrementPendingTasks() {
+		while (true) {
+			int pending = pendingTasksCount.get();
+			if (pending >= maximumPendingTasks) {
+				return false;
+			}
+			if (pendingTasksCount.compareAndSet(pending, pending + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Moves the pending tasks into the executor while there are free permits.
+	 * Called after every release of a permit, and after adding a pending task, so that no task waits while a permit
+	 * is free
+	 */
+	private void drainPendingTasks() {
+		while (pendingTasksCount.get() > 0) {
+			boolean acquired = ignoreTaskLimit || taskLimit.tryAcquire();
+			if (!acquired) {
+				return;
+			}
+			AsyncTask<?> next = pendingTasks.poll();
+			if (next == null) {
+				// Another thread took the last pending task, or the task is still being added
+				if (!ignoreTaskLimit) {
+					taskLimit.release();
 				}
-				// attempt to acquire permit for task execution
-				if (!this.taskLimit.tryAcquire(this.timeout.toMillis(), MILLISECONDS)) {
-					throw new RejectedExecutionException(String.format("Executor '%s' busy", this.delegate));
+				if (pendingTasks.isEmpty()) {
+					return;
 				}
-			} catch (final InterruptedException e) {
-				// restore interrupt status
-				Thread.currentThread().interrupt();
-				throw new RejectedExecutionException(e);
+				continue;
 			}
+			pendingTasksCount.decrementAndGet();
+			if (next.future.isDone()) {
+				// Cancelled while pending
+				if (!ignoreTaskLimit) {
+					taskLimit.release();
+				}
+				continue;
+			}
+			if (holdPermitWhileRunning) {
+				heldPermits.incrementAndGet();
+			}
+			dispatch(next);
 		}
 	}
 
+	/**
+	 * Passes a task, which already holds a permit, to the delegate executor
+	 */
+	private void dispatch(AsyncTask<?> asyncTask) {
+		try {
+			this.delegate.execute(new PermitReleasingRunnableDecorator(asyncTask, this::updateQueue, this.taskLimit, false));
+		} catch (RejectedExecutionException ex) {
+			asyncTask.future.completeExceptionally(ex);
+			// Like onDelegateRejected, without draining recursively: the caller is draining, or nothing is pending
+			metrics.recordRejection(false);
+			if (holdPermitWhileRunning) {
+				heldPermits.decrementAndGet();
+			}
+			this.taskLimit.release();
+		}
+	}
+
+	/**
+	 * @return number of tasks passed to {@link #submitAsync(Callable)} that wait for a permit
+	 */
+	public int getPendingTasks() {
+		return pendingTasksCount.get();
+	}
+
 	@Override
 	public final void execute(final Runnable command) {
 		preExecute(command);
+		executeAdmitted(command);
+	}
 
-		this.delegate.execute(new PermitReleasingRunnableDecorator(command, () -> {
-			var queueSize = queueSizeSupplier.get();
-			synchronized (queueSizeStatusLock) {
-				if (queueSizeStatus != null) queueSizeStatus.accept(!ignoreTaskLimit && queueSize >= maximumTaskNumber, queueSize);
+	/**
+	 * @see BoundedInvocations.TimedAdmission
+	 */
+	private boolean tryExecute(Runnable command, long timeoutNanos) throws InterruptedException {
+		Objects.requireNonNull(command, "'command' must not be null");
+		long maximumTimeoutNanos = safeToNanos(this.timeout);
+		if (!admit(Math.min(timeoutNanos, maximumTimeoutNanos))) {
+			if (timeoutNanos < maximumTimeoutNanos) {
+				return false;
 			}
-		}, this.taskLimit));
+			metrics.recordRejection(true);
+			throw busy();
+		}
+		executeAdmitted(command);
+		return true;
+	}
+
+	/**
+	 * An expired command is not run, and its future is failed if the command is a future, like the tasks of
+	 * {@link BoundedInvocations}
+	 */
+	private void executeAdmitted(Runnable command) {
+		try {
+			this.delegate.execute(new PermitReleasingRunnableDecorator(command, () -> {
+				var queueSize = getQueueSize();
+				queueSizeStatusLock.lock();
+				try {
+					if (queueSizeStatus != null) queueSizeStatus.accept(!ignoreTaskLimit && queueSize >= maximumTaskNumber, queueSize);
+				} finally {
+					queueSizeStatusLock.unlock();
+				}
+			}, this.taskLimit, false));
+		} catch (RejectedExecutionException ex) {
+			onDelegateRejected();
+			throw ex;
+		}
 	}
 
 
@@ -181,6 +664,8 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 		while (this.taskLimit.hasQueuedThreads()) {
 			this.taskLimit.release(10);
 		}
+		// The pending tasks have been submitted before the shutdown, so they are executed
+		drainPendingTasks();
 		this.delegate.shutdown();
 	}
 
@@ -191,7 +676,15 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 		while (this.taskLimit.hasQueuedThreads()) {
 			this.taskLimit.release(10);
 		}
-		return this.delegate.shutdownNow();
+		List<Runnable> notStarted = new ArrayList<>();
+		AsyncTask<?> pendingTask;
+		while ((pendingTask = pendingTasks.poll()) != null) {
+			pendingTasksCount.decrementAndGet();
+			pendingTask.future.cancel(false);
+			notStarted.add(pendingTask);
+		}
+		notStarted.addAll(this.delegate.shutdownNow());
+		return notStarted;
 	}
 
 	@Override
@@ -214,7 +707,12 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 	public <T> Future<T> submit(@NotNull Callable<T> task) {
 		preExecute(task);
 
-		return this.delegate.submit(new PermitReleasingCallableDecorator<>(task, this::updateQueue, this.taskLimit));
+		try {
+			return this.delegate.submit(new PermitReleasingCallableDecorator<>(task, this::updateQueue, this.taskLimit));
+		} catch (RejectedExecutionException ex) {
+			onDelegateRejected();
+			throw ex;
+		}
 	}
 
 	@NotNull
@@ -222,7 +720,12 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 	public <T> Future<T> submit(@NotNull Runnable task, T result) {
 		preExecute(task);
 
-		return this.delegate.submit(new PermitReleasingRunnableDecorator(task, this::updateQueue, this.taskLimit), result);
+		try {
+			return this.delegate.submit(new PermitReleasingRunnableDecorator(task, this::updateQueue, this.taskLimit, true), result);
+		} catch (RejectedExecutionException ex) {
+			onDelegateRejected();
+			throw ex;
+		}
 	}
 
 	@NotNull
@@ -230,13 +733,18 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 	public Future<?> submit(@NotNull Runnable task) {
 		preExecute(task);
 
-		return this.delegate.submit(new PermitReleasingRunnableDecorator(task, this::updateQueue, this.taskLimit));
+		try {
+			return this.delegate.submit(new PermitReleasingRunnableDecorator(task, this::updateQueue, this.taskLimit, true));
+		} catch (RejectedExecutionException ex) {
+			onDelegateRejected();
+			throw ex;
+		}
 	}
 
 	@NotNull
 	@Override
 	public <T> List<Future<T>> invokeAll(@NotNull Collection<? extends Callable<T>> tasks) throws InterruptedException {
-		throw new UnsupportedOperationException("invokeAll(tasks) is not supported");
+		return BoundedInvocations.invokeAll(this, tasks);
 	}
 
 	@NotNull
@@ -244,20 +752,45 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 	public <T> List<Future<T>> invokeAll(@NotNull Collection<? extends Callable<T>> tasks,
 			long timeout,
 			@NotNull TimeUnit unit) throws InterruptedException {
-		throw new UnsupportedOperationException("invokeAll(tasks, timeout, unit) is not supported");
+		return BoundedInvocations.invokeAll(this::tryExecute, tasks, unit.toNanos(timeout));
 	}
 
 	@NotNull
 	@Override
 	public <T> T invokeAny(@NotNull Collection<? extends Callable<T>> tasks)
 			throws InterruptedException, ExecutionException {
-		throw new UnsupportedOperationException("invokeAny(tasks) is not supported");
+		try {
+			return BoundedInvocations.invokeAny(this::tryExecute, tasks, -1L);
+		} catch (TimeoutException ex) {
+			throw new IllegalStateException(ex);
+		}
 	}
 
 	@Override
 	public <T> T invokeAny(@NotNull Collection<? extends Callable<T>> tasks, long timeout, @NotNull TimeUnit unit)
 			throws InterruptedException, ExecutionException, TimeoutException {
-		throw new UnsupportedOperationException("invokeAny(tasks, timeout, unit) is not supported");
+		return BoundedInvocations.invokeAny(this::tryExecute, tasks, Math.max(0L, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * @return a snapshot of the queue wait time, run time, rejections and expirations of the tasks
+	 */
+	public BoundedExecutorMetrics getMetrics() {
+		return metrics.snapshot();
+	}
+
+	/**
+	 * @return current limit of the tasks, which changes over time if the limit is adaptive
+	 */
+	public int getTaskLimit() {
+		return maximumTaskNumber;
+	}
+
+	/**
+	 * @return number of tasks that waited in the queue longer than the queued task ttl and were not run
+	 */
+	public long getExpiredTasks() {
+		return expiredTasks.sum();
 	}
 
 	@Override
@@ -265,4 +798,50 @@ public class BlockingOnFullQueueExecutorServiceDecorator implements BoundedExecu
 		return String.format("%s[availablePermits='%s',timeout='%s',delegate='%s']", getClass().getSimpleName(), this.taskLimit.availablePermits(),
 				this.timeout, this.delegate);
 	}
-}
\ No newline at end of file
+
+	private static final class AsyncTask<T> implements Runnable {
+
+		@Nonnull
+		private final Callable<T> delegate;
+
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+
+		private AsyncTask(@Nonnull final Callable<T> task) {
+			this.delegate = task;
+		}
+
+		@Override
+		public void run() {
+			if (future.isDone()) {
+				return;
+			}
+			try {
+				future.complete(delegate.call());
+			} catch (Throwable ex) {
+				future.completeExceptionally(ex);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s[delegate='%s']", getClass().getSimpleName(), this.delegate);
+		}
+	}
+
+	/**
+	 * Semaphore whose number of permits can be reduced below the number of the permits currently taken
+	 */
+	private static final class ResizableSemaphore extends Semaphore {
+
+		private static final long serialVersionUID = 1L;
+
+		private ResizableSemaphore(int permits) {
+			super(permits);
+		}
+
+		@Override
+		protected void reducePermits(int reduction) {
+			super.reducePermits(reduction);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package org.warp.commonutils.concurrency.executor;
+
+import org.warp.commonutils.metrics.AtomicLatencyHistogramSnapshot;
+import org.warp.commonutils.metrics.AtomicTimeIncrementalSamplesSnapshot;
+
+/**
+ * Snapshot of the metrics of a bounded executor, which doesn't change anymore.
+ * <p>
+ * The queue wait time of a task goes from its admission to its start, and its run time from its start to its
+ * completion, so a high latency caused by the queueing can be told apart from a high latency caused by the tasks.
+ * The events are counted over the last minute, with a resolution of one second.
+ */
+public final class BoundedExecutorMetrics {
+
+	private final AtomicLatencyHistogramSnapshot queueWaitTime;
+	private final AtomicLatencyHistogramSnapshot runTime;
+	private final AtomicTimeIncrementalSamplesSnapshot rejections;
+	private final AtomicTimeIncrementalSamplesSnapshot admissionTimeouts;
+	private final AtomicTimeIncrementalSamplesSnapshot expiredTasks;
+
+	BoundedExecutorMetrics(AtomicLatencyHistogramSnapshot queueWaitTime,
+			AtomicLatencyHistogramSnapshot runTime,
+			AtomicTimeIncrementalSamplesSnapshot rejections,
+			AtomicTimeIncrementalSamplesSnapshot admissionTimeouts,
+			AtomicTimeIncrementalSamplesSnapshot expiredTasks) {
+		this.queueWaitTime = queueWaitTime;
+		this.runTime = runTime;
+		this.rejections = rejections;
+		this.admissionTimeouts = admissionTimeouts;
+		this.expiredTasks = expiredTasks;
+	}
+
+	/**
+	 * @return time spent by the started tasks in the queue
+	 */
+	public AtomicLatencyHistogramSnapshot getQueueWaitTime() {
+		return queueWaitTime;
+	}
+
+	/**
+	 * @return time spent running by the completed tasks
+	 */
+	public AtomicLatencyHistogramSnapshot getRunTime() {
+		return runTime;
+	}
+
+	/**
+	 * @return tasks rejected at submission, because the queue stayed full, the submitting thread was interrupted,
+	 * or the executor was shut down
+	 */
+	public AtomicTimeIncrementalSamplesSnapshot getRejections() {
+		return rejections;
+	}
+
+	/**
+	 * @return tasks rejected at submission because the queue stayed full longer than the admission timeout.
+	 * They are included in the {@link #getRejections() rejections}
+	 */
+	public AtomicTimeIncrementalSamplesSnapshot getAdmissionTimeouts() {
+		return admissionTimeouts;
+	}
+
+	/**
+	 * @return tasks not run because they waited in the queue longer than their ttl
+	 */
+	public AtomicTimeIncrementalSamplesSnapshot getExpiredTasks() {
+		return expiredTasks;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[queueWaitTime='%s',runTime='%s',rejections='%d',admissionTimeouts='%d',expiredTasks='%d']",
+				getClass().getSimpleName(),
+				queueWaitTime,
+				runTime,
+				rejections.getTotalCount(),
+				admissionTimeouts.getTotalCount(),
+				expiredTasks.getTotalCount()
+		);
+	}
+}
@@ -0,0 +1,54 @@
+package org.warp.commonutils.concurrency.executor;
+
+import org.warp.commonutils.metrics.AtomicLatencyHistogram;
+import org.warp.commonutils.metrics.AtomicTimeIncrementalSamples;
+
+/**
+ * Records the metrics of a bounded executor, which are read through the {@link BoundedExecutorMetrics} snapshots.
+ * The events are counted over the last minute, with a resolution of one second.
+ */
+final class BoundedExecutorMetricsRecorder {
+
+	private static final int SAMPLE_TIME_MILLIS = 1000;
+	private static final int SAMPLES_COUNT = 60;
+
+	private final AtomicLatencyHistogram queueWaitTime = new AtomicLatencyHistogram();
+	private final AtomicLatencyHistogram runTime = new AtomicLatencyHistogram();
+	private final AtomicTimeIncrementalSamples rejections = new AtomicTimeIncrementalSamples(SAMPLE_TIME_MILLIS,
+			SAMPLES_COUNT
+	);
+	private final AtomicTimeIncrementalSamples admissionTimeouts = new AtomicTimeIncrementalSamples(SAMPLE_TIME_MILLIS,
+			SAMPLES_COUNT
+	);
+	private final AtomicTimeIncrementalSamples expiredTasks = new AtomicTimeIncrementalSamples(SAMPLE_TIME_MILLIS,
+			SAMPLES_COUNT
+	);
+
+	void recordQueueWait(long nanos) {
+		queueWaitTime.record(nanos);
+	}
+
+	void recordRun(long nanos) {
+		runTime.record(nanos);
+	}
+
+	void recordRejection(boolean admissionTimeout) {
+		rejections.increment(1);
+		if (admissionTimeout) {
+			admissionTimeouts.increment(1);
+		}
+	}
+
+	void recordExpiration() {
+		expiredTasks.increment(1);
+	}
+
+	BoundedExecutorMetrics snapshot() {
+		return new BoundedExecutorMetrics(queueWaitTime.snapshot(),
+				runTime.snapshot(),
+				rejections.snapshot(),
+				admissionTimeouts.snapshot(),
+				expiredTasks.snapshot()
+		);
+	}
+}
@@ -1,17 +1,48 @@
 package org.warp.commonutils.concurrency.executor;
 
 import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import org.jetbrains.annotations.Nullable;
 
 public interface BoundedExecutorService extends ExecutorService {
 
+	/**
+	 * Submit a task, returning a {@link CompletableFuture} of its result.
+	 * The default implementation calls {@link #execute(Runnable)}, so it may block while the queue is full.
+	 * The bounded executors of this package never block the calling thread: if the queue is full,
+	 * {@link BlockingOnFullQueueExecutorServiceDecorator} keeps the task pending, and the other executors reject it.
+	 *
+	 * @return a future completed with the result of the task, or with a {@link RejectedExecutionException} if the
+	 * task is rejected
+	 */
+	default <T> CompletableFuture<T> submitAsync(Callable<T> task) {
+		var future = new CompletableFuture<T>();
+		try {
+			execute(() -> {
+				try {
+					future.complete(task.call());
+				} catch (Throwable ex) {
+					future.completeExceptionally(ex);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
 	@Deprecated
 	static ExecutorService createUnbounded(
 			int corePoolSize,
@@ -62,6 +93,11 @@ public interface BoundedExecutorService extends ExecutorService {
 		return create(maxQueueSize, corePoolSize, keepAliveTime, unit, threadFactory, Duration.ofDays(1000000), queueSizeStatus);
 	}
 
+	/**
+	 * @param queueItemTtl maximum time spent waiting for a free slot of the queue, and then in the queue.
+	 *                     Tasks that expire in the queue are not run
+	 * @see BlockingOnFullQueueExecutorServiceDecorator
+	 */
 	static BoundedExecutorService create(int maxQueueSize,
 			int corePoolSize,
 			long keepAliveTime,
@@ -80,8 +116,147 @@ public interface BoundedExecutorService extends ExecutorService {
 		return new BlockingOnFullQueueExecutorServiceDecorator(threadPoolExecutor,
 				maxQueueSize,
 				queueItemTtl,
+				queueItemTtl,
 				queue::size,
 				queueSizeStatus
 		);
 	}
+
+	/**
+	 * Create a bounded executor whose maximum queue size is adapted at runtime to the latency of the tasks, between
+	 * {@code minQueueSize} and {@code maxQueueSize}
+	 *
+	 * @see GradientConcurrencyLimit
+	 * @see BlockingOnFullQueueExecutorServiceDecorator#getTaskLimit()
+	 */
+	static BlockingOnFullQueueExecutorServiceDecorator createAdaptive(int minQueueSize,
+			int maxQueueSize,
+			int corePoolSize,
+			long keepAliveTime,
+			TimeUnit unit,
+			ThreadFactory threadFactory,
+			Duration queueItemTtl,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		var queue = new LinkedBlockingQueue<Runnable>();
+		var threadPoolExecutor = new ThreadPoolExecutor(corePoolSize,
+				corePoolSize,
+				keepAliveTime,
+				unit,
+				queue,
+				threadFactory
+		);
+		return new BlockingOnFullQueueExecutorServiceDecorator(threadPoolExecutor,
+				new GradientConcurrencyLimit(minQueueSize, minQueueSize, maxQueueSize),
+				queueItemTtl,
+				queueItemTtl,
+				false,
+				queue::size,
+				queueSizeStatus
+		);
+	}
+
+	/**
+	 * Create a bounded executor for high rates of small tasks, backed by a lock-free queue
+	 *
+	 * @param maximumTimeout maximum time to wait for a free slot of the queue. Queued tasks don't expire
+	 * @see LockFreeBoundedExecutorServiceDecorator
+	 */
+	static BoundedExecutorService createLockFree(int maxQueueSize,
+			int corePoolSize,
+			long keepAliveTime,
+			TimeUnit unit,
+			ThreadFactory threadFactory,
+			Duration maximumTimeout,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		var threadPoolExecutor = new ThreadPoolExecutor(corePoolSize,
+				corePoolSize,
+				keepAliveTime,
+				unit,
+				new LinkedTransferQueue<>(),
+				threadFactory
+		);
+		return new LockFreeBoundedExecutorServiceDecorator(threadPoolExecutor,
+				maxQueueSize,
+				maximumTimeout,
+				queueSizeStatus
+		);
+	}
+
+	/**
+	 * Create a bounded executor backed by a {@link ForkJoinPool} in async mode: every worker has its own deque and
+	 * steals tasks from the others when it's idle, instead of contending on a single queue.
+	 * Tasks submitted from outside the pool are spread over multiple submission queues, and tasks submitted by a
+	 * worker are pushed to its own deque.
+	 *
+	 * @param maxQueueSize   maximum number of tasks submitted and not started yet, over all the deques
+	 * @param maximumTimeout maximum time to wait for a free slot of the queue. Queued tasks don't expire
+	 * @see LockFreeBoundedExecutorServiceDecorator
+	 */
+	static BoundedExecutorService createWorkStealing(int maxQueueSize,
+			int parallelism,
+			String threadNamePrefix,
+			Duration maximumTimeout,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		var threadNumber = new AtomicInteger(1);
+		var forkJoinPool = new ForkJoinPool(parallelism, pool -> {
+			var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName(threadNamePrefix + "-" + threadNumber.getAndIncrement());
+			return thread;
+		}, null, true);
+		return new LockFreeBoundedExecutorServiceDecorator(forkJoinPool,
+				maxQueueSize,
+				maximumTimeout,
+				queueSizeStatus
+		);
+	}
+
+	/**
+	 * Create a bounded executor that runs the queued tasks by priority
+	 *
+	 * @param maxLaneQueueSizes maximum number of queued tasks of each priority lane, or zero for no limit
+	 * @param agingInterval     time after which a queued task is considered one lane more important
+	 * @param maximumTimeout    maximum time to wait for a free slot of a full lane. Queued tasks don't expire
+	 * @see PriorityBoundedExecutorService
+	 */
+	static PriorityBoundedExecutorService createPriority(int[] maxLaneQueueSizes,
+			int corePoolSize,
+			long keepAliveTime,
+			TimeUnit unit,
+			ThreadFactory threadFactory,
+			Duration agingInterval,
+			Duration maximumTimeout,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		return new PriorityBoundedExecutorService(corePoolSize,
+				keepAliveTime,
+				unit,
+				threadFactory,
+				maxLaneQueueSizes,
+				agingInterval,
+				maximumTimeout,
+				queueSizeStatus
+		);
+	}
+
+	/**
+	 * Create a bounded executor that runs every task in a new virtual thread, so blocking tasks don't need a sized
+	 * pool of threads. On runtimes without virtual threads, the tasks run in a cached pool of platform threads.
+	 *
+	 * @param maxConcurrentTasks maximum number of tasks that are queued or running: further submissions block, like
+	 *                           the other bounded executors. Zero means no limit
+	 * @param queueSizeStatus    called with the number of tasks that are queued or running
+	 * @see VirtualThreadSupport
+	 */
+	static BoundedExecutorService createVirtual(int maxConcurrentTasks,
+			String threadNamePrefix,
+			Duration queueItemTtl,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		return new BlockingOnFullQueueExecutorServiceDecorator(VirtualThreadSupport.newThreadPerTaskExecutor(threadNamePrefix),
+				maxConcurrentTasks,
+				queueItemTtl,
+				queueItemTtl,
+				true,
+				null,
+				queueSizeStatus
+		);
+	}
 }
@@ -0,0 +1,216 @@
+package org.warp.commonutils.concurrency.executor;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * {@code invokeAll} and {@code invokeAny} for the bounded executors.
+ * <p>
+ * The tasks are submitted one by one through the bounded {@code submit} and {@code execute} methods, so each
+ * submission waits for a free slot of the queue instead of requiring all the tasks to be admitted up front.
+ * The timed methods bound each of those waits by their own deadline, through a {@link TimedAdmission}.
+ */
+final class BoundedInvocations {
+
+	private BoundedInvocations() {
+	}
+
+	static <T> List<Future<T>> invokeAll(ExecutorService executor, Collection<? extends Callable<T>> tasks)
+			throws InterruptedException {
+		ArrayList<Future<T>> futures = new ArrayList<>(tasks.size());
+		try {
+			for (Callable<T> task : tasks) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				futures.add(executor.submit(task));
+			}
+			for (Future<T> future : futures) {
+				if (!future.isDone()) {
+					try {
+						future.get();
+					} catch (CancellationException | ExecutionException ignored) {
+						// The result is reported by the future
+					}
+				}
+			}
+			return futures;
+		} catch (Throwable ex) {
+			cancelAll(futures);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Each submission waits for a free slot of the queue at most until the deadline. The tasks that can't be
+	 * submitted before the deadline are returned as cancelled futures
+	 */
+	static <T> List<Future<T>> invokeAll(TimedAdmission admission,
+			Collection<? extends Callable<T>> tasks,
+			long timeoutNanos) throws InterruptedException {
+		final long deadline = System.nanoTime() + timeoutNanos;
+		ArrayList<Future<T>> futures = new ArrayList<>(tasks.size());
+		try {
+			boolean expired = false;
+			for (Callable<T> task : tasks) {
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+				var future = new FutureTask<>(task);
+				futures.add(future);
+				if (!expired) {
+					long remainingNanos = deadline - System.nanoTime();
+					expired = remainingNanos <= 0L || !admission.tryExecute(future, remainingNanos);
+				}
+				if (expired) {
+					future.cancel(false);
+				}
+			}
+			for (Future<T> future : futures) {
+				if (!future.isDone()) {
+					try {
+						future.get(deadline - System.nanoTime(), NANOSECONDS);
+					} catch (CancellationException | ExecutionException ignored) {
+						// The result is reported by the future
+					} catch (TimeoutException ex) {
+						cancelAll(futures);
+						return futures;
+					}
+				}
+			}
+			return futures;
+		} catch (Throwable ex) {
+			cancelAll(futures);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Submits the tasks one at a time while none of them has completed, and cancels the others as soon as one
+	 * of them succeeds. Each submission waits for a free slot of the queue at most until the deadline
+	 *
+	 * @param timeoutNanos maximum time to wait, or a negative number to wait indefinitely
+	 */
+	static <T> T invokeAny(TimedAdmission admission, Collection<? extends Callable<T>> tasks, long timeoutNanos)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		int remainingTasks = tasks.size();
+		if (remainingTasks == 0) {
+			throw new IllegalArgumentException("At least one task is required");
+		}
+		final boolean timed = timeoutNanos >= 0;
+		final long deadline = timed ? System.nanoTime() + timeoutNanos : 0L;
+		ArrayList<Future<T>> futures = new ArrayList<>(remainingTasks);
+		var completedFutures = new LinkedBlockingQueue<Future<T>>();
+		try {
+			ExecutionException lastFailure = null;
+			Iterator<? extends Callable<T>> iterator = tasks.iterator();
+			submit(admission, iterator.next(), futures, completedFutures, timed, deadline);
+			remainingTasks--;
+			int activeTasks = 1;
+			while (true) {
+				Future<T> completed = completedFutures.poll();
+				if (completed == null) {
+					if (remainingTasks > 0) {
+						submit(admission, iterator.next(), futures, completedFutures, timed, deadline);
+						remainingTasks--;
+						activeTasks++;
+					} else if (activeTasks == 0) {
+						break;
+					} else if (timed) {
+						completed = completedFutures.poll(deadline - System.nanoTime(), NANOSECONDS);
+						if (completed == null) {
+							throw new TimeoutException();
+						}
+					} else {
+						completed = completedFutures.take();
+					}
+				}
+				if (completed != null) {
+					activeTasks--;
+					try {
+						return completed.get();
+					} catch (ExecutionException ex) {
+						lastFailure = ex;
+					} catch (RuntimeException ex) {
+						lastFailure = new ExecutionException(ex);
+					}
+				}
+			}
+			throw lastFailure;
+		} finally {
+			cancelAll(futures);
+		}
+	}
+
+	/**
+	 * @throws TimeoutException if the deadline is reached before a slot of the queue becomes free
+	 */
+	private static <T> void submit(TimedAdmission admission,
+			Callable<T> task,
+			List<Future<T>> futures,
+			BlockingQueue<Future<T>> completedFutures,
+			boolean timed,
+			long deadline) throws InterruptedException, TimeoutException {
+		var future = new QueueingFuture<>(task, completedFutures);
+		futures.add(future);
+		long remainingNanos = timed ? deadline - System.nanoTime() : Long.MAX_VALUE;
+		if (remainingNanos <= 0L || !admission.tryExecute(future, remainingNanos)) {
+			throw new TimeoutException();
+		}
+	}
+
+	private static <T> void cancelAll(List<Future<T>> futures) {
+		for (Future<T> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Executes a task if a slot of the queue becomes free in time
+	 */
+	@FunctionalInterface
+	interface TimedAdmission {
+
+		/**
+		 * Like {@link ExecutorService#execute(Runnable)}, but waits for a free slot of the queue at most
+		 * {@code timeoutNanos}, if that's shorter than the maximum timeout of the executor
+		 *
+		 * @return false if no slot became free within {@code timeoutNanos}: the task is not executed
+		 * @throws RejectedExecutionException if the task has been rejected, for example because no slot became free
+		 *                                    within the maximum timeout of the executor
+		 */
+		boolean tryExecute(Runnable task, long timeoutNanos) throws InterruptedException;
+	}
+
+	/**
+	 * Adds itself to a queue when it's done, like the tasks of an {@link java.util.concurrent.ExecutorCompletionService}
+	 */
+	private static final class QueueingFuture<T> extends FutureTask<T> {
+
+		private final BlockingQueue<Future<T>> completedFutures;
+
+		private QueueingFuture(Callable<T> task, BlockingQueue<Future<T>> completedFutures) {
+			super(task);
+			this.completedFutures = completedFutures;
+		}
+
+		@Override
+		protected void done() {
+			completedFutures.add(this);
+		}
+	}
+}
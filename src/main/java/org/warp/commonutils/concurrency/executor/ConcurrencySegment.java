@@ -1,40 +1,46 @@
 package org.warp.commonutils.concurrency.executor;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.function.Supplier;
 
-final class ConcurrencySegment<K, V> {
+/**
+ * Reference-counted registry of per-key values.
+ * Every {@link #getValue(Object)} call must be followed by exactly one {@link #releaseKey(Object)} call
+ * with an equal key. While a key has at least one user, every call returns the same value.
+ */
+interface ConcurrencySegment<K, V> {
 
-	private final Map<K, Entry> store = new HashMap<K, Entry>();
-	private final Supplier<V> valuesSupplier;
+	V getValue(K key);
 
-	ConcurrencySegment(Supplier<V> valuesSupplier) {
-		this.valuesSupplier = valuesSupplier;
-	}
+	void releaseKey(K key);
 
-	synchronized V getValue(K key) {
-		Entry current = store.get(key);
-		if (current == null) {
-			current = new Entry();
-			store.put(key, current);
-		} else {
-			current.users++;
+	/**
+	 * Calls {@link #getValue(Object)} for every key in the range, storing the results at the same indices
+	 */
+	@SuppressWarnings("unchecked")
+	default void getValues(Object[] keys, int from, int to, Object[] values) {
+		for (int i = from; i < to; i++) {
+			values[i] = getValue((K) keys[i]);
 		}
-		return current.value;
 	}
 
-	synchronized void releaseKey(K key) {
-		Entry current = store.get(key);
-		if (current.users == 1) {
-			store.remove(key);
-		} else {
-			current.users--;
+	/**
+	 * Calls {@link #releaseKey(Object)} for every key in the range
+	 */
+	@SuppressWarnings("unchecked")
+	default void releaseKeys(Object[] keys, int from, int to) {
+		for (int i = from; i < to; i++) {
+			releaseKey((K) keys[i]);
 		}
 	}
 
-	private class Entry {
-		private int users = 1;
-		private V value = valuesSupplier.get();
+	static <K, V> ConcurrencySegment<K, V> create(ConcurrencySegmentType type, Supplier<V> valuesSupplier) {
+		switch (type) {
+			case SYNCHRONIZED:
+				return new SynchronizedConcurrencySegment<>(valuesSupplier);
+			case POOLED_LOCK_FREE:
+				return new PooledConcurrencySegment<>(valuesSupplier);
+			default:
+				throw new UnsupportedOperationException("Unsupported segment type: " + type);
+		}
 	}
-}
\ No newline at end of file
+}
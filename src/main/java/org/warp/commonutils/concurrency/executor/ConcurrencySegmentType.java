@@ -0,0 +1,17 @@
+package org.warp.commonutils.concurrency.executor;
+
+/**
+ * Implementation used by the per-key executors to track the values associated with the keys in use
+ */
+public enum ConcurrencySegmentType {
+	/**
+	 * Keys are stored in a {@link java.util.HashMap} guarded by the segment monitor.
+	 * A new value is created on every first use of a key.
+	 */
+	SYNCHRONIZED,
+	/**
+	 * Keys are stored in a {@link java.util.concurrent.ConcurrentHashMap} and reference-counted with CAS.
+	 * Values of released keys are kept in a small pool and reused, so lock objects are not reallocated.
+	 */
+	POOLED_LOCK_FREE
+}
@@ -0,0 +1,100 @@
+package org.warp.commonutils.concurrency.executor;
+
+/**
+ * Adaptive limit of the tasks admitted by {@link BlockingOnFullQueueExecutorServiceDecorator}, computed from the
+ * latency of the completed tasks.
+ * <p>
+ * The latency of every completed task, from its admission to its completion, is compared with a long-term average:
+ * while they are similar the limit grows by about its square root, and when the latency increases, because the
+ * tasks wait longer in the queue or run slower, the limit shrinks proportionally, by half at most for each sample.
+ * The limit doesn't grow while less than half of it is used, since those samples don't tell if more tasks would be
+ * served with the same latency.
+ * <p>
+ * An instance must be used by a single executor, and it's not thread safe: the executor updates it under a lock.
+ */
+public final class GradientConcurrencyLimit {
+
+	/**
+	 * Latency increase, relative to the long-term average, that doesn't reduce the limit
+	 */
+	private static final double TOLERANCE = 1.5;
+
+	/**
+	 * Weight of a new limit, to smooth the variations caused by a single sample
+	 */
+	private static final double SMOOTHING = 0.2;
+
+	/**
+	 * Weight of a sample in the long-term average of the latency, about one sample over 600
+	 */
+	private static final double LONG_LATENCY_ALPHA = 2.0 / 601.0;
+
+	private final int minLimit;
+	private final int maxLimit;
+
+	private double estimatedLimit;
+	private double longLatencyNanos;
+
+	/**
+	 * @param initialLimit limit used until the first samples are collected
+	 * @param minLimit     minimum limit, at least 1
+	 * @param maxLimit     maximum limit
+	 */
+	public GradientConcurrencyLimit(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit < 1) {
+			throw new IllegalArgumentException(String.format("The minimum limit must be at least 1, not '%d'", minLimit));
+		}
+		if (maxLimit < minLimit) {
+			throw new IllegalArgumentException(String.format("The maximum limit '%d' is less than the minimum limit '%d'",
+					maxLimit,
+					minLimit
+			));
+		}
+		if (initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new IllegalArgumentException(String.format("The initial limit '%d' is not between '%d' and '%d'",
+					initialLimit,
+					minLimit,
+					maxLimit
+			));
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.estimatedLimit = initialLimit;
+	}
+
+	int getLimit() {
+		return (int) estimatedLimit;
+	}
+
+	/**
+	 * @param latencyNanos time between the admission of a task and its completion
+	 * @param inFlight     number of tasks admitted and not completed, or not started, that hold a permit
+	 * @return the new limit
+	 */
+	int onSample(long latencyNanos, int inFlight) {
+		double latency = Math.max(1L, latencyNanos);
+		if (longLatencyNanos == 0) {
+			longLatencyNanos = latency;
+		} else {
+			longLatencyNanos = longLatencyNanos * (1 - LONG_LATENCY_ALPHA) + latency * LONG_LATENCY_ALPHA;
+		}
+		// After an overload the long-term average is too high to detect a new one: let it recover faster
+		if (longLatencyNanos / latency > 2) {
+			longLatencyNanos *= 0.95;
+		}
+		if (inFlight < estimatedLimit / 2) {
+			return getLimit();
+		}
+		double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatencyNanos / latency));
+		double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+		newLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		return getLimit();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s[limit='%d',minLimit='%d',maxLimit='%d']", getClass().getSimpleName(), getLimit(),
+				minLimit, maxLimit);
+	}
+}
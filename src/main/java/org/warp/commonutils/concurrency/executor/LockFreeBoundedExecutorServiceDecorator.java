@@ -0,0 +1,453 @@
+package org.warp.commonutils.concurrency.executor;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import javax.annotation.Nonnull;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link BoundedExecutorService} with the same semantics of {@link BlockingOnFullQueueExecutorServiceDecorator},
+ * designed for high rates of small tasks.
+ * <p>
+ * Admission is a single CAS on the counter of the queued tasks: a lock and a condition are used only when the
+ * queue is full. The queue size is tracked by the same counter, so the delegate queue is never inspected, and the
+ * status callback is coalesced: it's called when the queue becomes full or not full anymore, and otherwise at most
+ * once per status interval. The callback is never called concurrently: a periodic report is skipped when another
+ * thread is already reporting, while a change of the full state makes the reporting thread report again, so the last
+ * reported status is never older than the last change.
+ */
+public class LockFreeBoundedExecutorServiceDecorator implements BoundedExecutorService {
+
+	private static final Duration DEFAULT_STATUS_INTERVAL = Duration.ofMillis(10);
+
+	private volatile boolean ignoreTaskLimit;
+
+	private final AtomicInteger queuedTasks = new AtomicInteger();
+
+	private final ReentrantLock fullLock = new ReentrantLock();
+
+	private final Condition notFull = fullLock.newCondition();
+
+	private final AtomicInteger waitingProducers = new AtomicInteger();
+
+	@Nonnull
+	private final Duration timeout;
+
+	private final int maximumTaskNumber;
+
+	private final @Nullable BiConsumer<Boolean, Integer> queueSizeStatus;
+
+	private final long statusIntervalNanos;
+
+	private volatile long lastStatusNanos;
+
+	private final AtomicBoolean reportingStatus = new AtomicBoolean();
+
+	/**
+	 * Set when the full state changes, and cleared by the thread that reports it
+	 */
+	private volatile boolean statusChanged;
+
+	@Nonnull
+	private final ExecutorService delegate;
+
+	public LockFreeBoundedExecutorServiceDecorator(@Nonnull final ExecutorService executor,
+			final int maximumTaskNumber,
+			@Nonnull final Duration maximumTimeout,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		this(executor, maximumTaskNumber, maximumTimeout, queueSizeStatus, DEFAULT_STATUS_INTERVAL);
+	}
+
+	/**
+	 * @param statusInterval minimum time between two calls of {@code queueSizeStatus} that don't report a change
+	 *                       of the full state
+	 */
+	public LockFreeBoundedExecutorServiceDecorator(@Nonnull final ExecutorService executor,
+			final int maximumTaskNumber,
+			@Nonnull final Duration maximumTimeout,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus,
+			@Nonnull Duration statusInterval) {
+		this.delegate = Objects.requireNonNull(executor, "'executor' must not be null");
+		if (maximumTaskNumber < 0) {
+			throw new IllegalArgumentException(String.format("At least zero tasks must be permitted, not '%d'", maximumTaskNumber));
+		} else if (maximumTaskNumber == 0) {
+			ignoreTaskLimit = true;
+		}
+		this.timeout = Objects.requireNonNull(maximumTimeout, "'maximumTimeout' must not be null");
+		if (this.timeout.isNegative()) {
+			throw new IllegalArgumentException("'maximumTimeout' must not be negative");
+		}
+		this.maximumTaskNumber = maximumTaskNumber;
+		this.queueSizeStatus = queueSizeStatus;
+		this.statusIntervalNanos = Objects.requireNonNull(statusInterval, "'statusInterval' must not be null").toNanos();
+	}
+
+	private boolean tryAdmit() {
+		while (true) {
+			int queued = queuedTasks.get();
+			if (queued >= maximumTaskNumber) {
+				return false;
+			}
+			if (queuedTasks.compareAndSet(queued, queued + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private void preExecute(Object command) {
+		Objects.requireNonNull(command, "'command' must not be null");
+		try {
+			if (!admit(safeToNanos(timeout))) {
+				throw busy();
+			}
+		} catch (final InterruptedException e) {
+			// restore interrupt status
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException(e);
+		}
+	}
+
+	/**
+	 * @return false if no slot became free within {@code timeoutNanos}
+	 */
+	private boolean admit(long timeoutNanos) throws InterruptedException {
+		return admitNow() || awaitAdmission(timeoutNanos);
+	}
+
+	/**
+	 * @return false if the queue is full
+	 */
+	private boolean admitNow() {
+		if (ignoreTaskLimit) {
+			queuedTasks.incrementAndGet();
+			return true;
+		}
+		boolean admitted = tryAdmit();
+		reportStatus(!admitted);
+		return admitted;
+	}
+
+	private RejectedExecutionException busy() {
+		return new RejectedExecutionException(String.format("Executor '%s' busy", this.delegate));
+	}
+
+	/**
+	 * Slow path, taken only when the queue is full
+	 */
+	private boolean awaitAdmission(long timeoutNanos) throws InterruptedException {
+		long remainingNanos = timeoutNanos;
+		fullLock.lockInterruptibly();
+		try {
+			// Registered before checking again, so that a starting task can't miss this producer
+			waitingProducers.incrementAndGet();
+			try {
+				while (!ignoreTaskLimit && !tryAdmit()) {
+					if (remainingNanos <= 0L) {
+						return false;
+					}
+					remainingNanos = notFull.awaitNanos(remainingNanos);
+				}
+				if (ignoreTaskLimit) {
+					queuedTasks.incrementAndGet();
+				}
+				return true;
+			} finally {
+				waitingProducers.decrementAndGet();
+			}
+		} finally {
+			fullLock.unlock();
+		}
+	}
+
+	/**
+	 * Called when a task leaves the queue
+	 */
+	private void onTaskStart() {
+		int queued = queuedTasks.decrementAndGet();
+		if (waitingProducers.get() > 0) {
+			fullLock.lock();
+			try {
+				notFull.signal();
+			} finally {
+				fullLock.unlock();
+			}
+		}
+		// Report immediately when the queue stops being full
+		reportStatus(queued + 1 == maximumTaskNumber);
+	}
+
+	/**
+	 * @param force report even if the status interval is not elapsed, because the full state changed
+	 */
+	private void reportStatus(boolean force) {
+		var queueSizeStatus = this.queueSizeStatus;
+		if (queueSizeStatus == null) {
+			return;
+		}
+		if (force) {
+			// Set before trying to report, so that the thread that is reporting can't miss it
+			statusChanged = true;
+		} else if (System.nanoTime() - lastStatusNanos < statusIntervalNanos) {
+			return;
+		}
+		while (reportingStatus.compareAndSet(false, true)) {
+			try {
+				statusChanged = false;
+				int queueSize = queuedTasks.get();
+				queueSizeStatus.accept(!ignoreTaskLimit && queueSize >= maximumTaskNumber, queueSize);
+				lastStatusNanos = System.nanoTime();
+			} finally {
+				reportingStatus.set(false);
+			}
+			// Checked after releasing the flag: a change that found the flag taken is reported again here
+			if (!statusChanged) {
+				return;
+			}
+		}
+	}
+
+	private static long safeToNanos(Duration duration) {
+		try {
+			return duration.toNanos();
+		} catch (ArithmeticException ex) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	private void releaseWaitingProducers() {
+		this.ignoreTaskLimit = true;
+		fullLock.lock();
+		try {
+			notFull.signalAll();
+		} finally {
+			fullLock.unlock();
+		}
+	}
+
+	@Override
+	public final void execute(final Runnable command) {
+		preExecute(command);
+		executeAdmitted(command);
+	}
+
+	/**
+	 * @see BoundedInvocations.TimedAdmission
+	 */
+	private boolean tryExecute(Runnable command, long timeoutNanos) throws InterruptedException {
+		Objects.requireNonNull(command, "'command' must not be null");
+		long maximumTimeoutNanos = safeToNanos(timeout);
+		if (!admit(Math.min(timeoutNanos, maximumTimeoutNanos))) {
+			if (timeoutNanos < maximumTimeoutNanos) {
+				return false;
+			}
+			throw busy();
+		}
+		executeAdmitted(command);
+		return true;
+	}
+
+	/**
+	 * Submit a task without waiting for a free slot of the queue
+	 *
+	 * @return a future completed with the result of the task, or with a {@link RejectedExecutionException} if the
+	 * queue is full or the executor is shut down
+	 */
+	@Override
+	public <T> CompletableFuture<T> submitAsync(@NotNull Callable<T> task) {
+		Objects.requireNonNull(task, "'task' must not be null");
+		var future = new CompletableFuture<T>();
+		try {
+			if (!admitNow()) {
+				throw busy();
+			}
+			executeAdmitted(() -> {
+				try {
+					future.complete(task.call());
+				} catch (Throwable ex) {
+					future.completeExceptionally(ex);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
+	private void executeAdmitted(Runnable command) {
+		try {
+			this.delegate.execute(new StartTrackingRunnable(command));
+		} catch (RejectedExecutionException ex) {
+			onTaskStart();
+			throw ex;
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		releaseWaitingProducers();
+		this.delegate.shutdown();
+	}
+
+	@NotNull
+	@Override
+	public List<Runnable> shutdownNow() {
+		releaseWaitingProducers();
+		return this.delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return this.delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return this.delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+		return this.delegate.awaitTermination(timeout, unit);
+	}
+
+	@NotNull
+	@Override
+	public <T> Future<T> submit(@NotNull Callable<T> task) {
+		preExecute(task);
+
+		try {
+			return this.delegate.submit(new StartTrackingCallable<>(task));
+		} catch (RejectedExecutionException ex) {
+			onTaskStart();
+			throw ex;
+		}
+	}
+
+	@NotNull
+	@Override
+	public <T> Future<T> submit(@NotNull Runnable task, T result) {
+		preExecute(task);
+
+		try {
+			return this.delegate.submit(new StartTrackingRunnable(task), result);
+		} catch (RejectedExecutionException ex) {
+			onTaskStart();
+			throw ex;
+		}
+	}
+
+	@NotNull
+	@Override
+	public Future<?> submit(@NotNull Runnable task) {
+		preExecute(task);
+
+		try {
+			return this.delegate.submit(new StartTrackingRunnable(task));
+		} catch (RejectedExecutionException ex) {
+			onTaskStart();
+			throw ex;
+		}
+	}
+
+	@NotNull
+	@Override
+	public <T> List<Future<T>> invokeAll(@NotNull Collection<? extends Callable<T>> tasks) throws InterruptedException {
+		return BoundedInvocations.invokeAll(this, tasks);
+	}
+
+	@NotNull
+	@Override
+	public <T> List<Future<T>> invokeAll(@NotNull Collection<? extends Callable<T>> tasks,
+			long timeout,
+			@NotNull TimeUnit unit) throws InterruptedException {
+		return BoundedInvocations.invokeAll(this::tryExecute, tasks, unit.toNanos(timeout));
+	}
+
+	@NotNull
+	@Override
+	public <T> T invokeAny(@NotNull Collection<? extends Callable<T>> tasks)
+			throws InterruptedException, ExecutionException {
+		try {
+			return BoundedInvocations.invokeAny(this::tryExecute, tasks, -1L);
+		} catch (TimeoutException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	@Override
+	public <T> T invokeAny(@NotNull Collection<? extends Callable<T>> tasks, long timeout, @NotNull TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		return BoundedInvocations.invokeAny(this::tryExecute, tasks, Math.max(0L, unit.toNanos(timeout)));
+	}
+
+	/**
+	 * @return number of tasks submitted and not started yet
+	 */
+	public int getQueuedTasks() {
+		return queuedTasks.get();
+	}
+
+	@Override
+	public final String toString() {
+		return String.format("%s[queuedTasks='%s',timeout='%s',delegate='%s']", getClass().getSimpleName(), this.queuedTasks.get(),
+				this.timeout, this.delegate);
+	}
+
+	private final class StartTrackingRunnable implements Runnable {
+
+		@Nonnull
+		private final Runnable delegate;
+
+		private StartTrackingRunnable(@Nonnull final Runnable task) {
+			this.delegate = task;
+		}
+
+		@Override
+		public void run() {
+			onTaskStart();
+			this.delegate.run();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s[delegate='%s']", getClass().getSimpleName(), this.delegate);
+		}
+	}
+
+	private final class StartTrackingCallable<T> implements Callable<T> {
+
+		@Nonnull
+		private final Callable<T> delegate;
+
+		private StartTrackingCallable(@Nonnull final Callable<T> task) {
+			this.delegate = task;
+		}
+
+		@Override
+		public T call() throws Exception {
+			onTaskStart();
+			return this.delegate.call();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s[delegate='%s']", getClass().getSimpleName(), this.delegate);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package org.warp.commonutils.concurrency.executor;
+
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import org.warp.commonutils.concurrency.executor.ReadWriteExecutor.LockMode;
+import org.warp.commonutils.random.HashUtil;
+
+/**
+ * An Executor which starts asynchronous tasks on a <b>per-key basis</b>, without ever suspending the calling thread.
+ * A task is considered running from the moment its supplier is called until the returned future completes.
+ * Tasks with equals keys never overlap a task executed in {@link LockMode#WRITE} mode,
+ * while tasks with equals keys executed in {@link LockMode#READ} mode can overlap each other.
+ * Tasks that can't start immediately are queued per key in FIFO order and chained after the previous tasks.
+ * Tasks with keys that are not equals are executed concurrently with minimal contention between the calls.
+ *
+ * @see AsyncReadWriteExecutor
+ */
+public final class PerKeyAsyncReadWriteExecutor<KEY_TYPE> implements Closeable {
+
+	private static final int BASE_CONCURRENCY_LEVEL = 32;
+
+	private final int concurrencyLevel;
+
+	private final ConcurrencySegment<KEY_TYPE, AsyncReadWriteExecutor>[] segments;
+
+	private final StripedCloseGuard closeGuard = new StripedCloseGuard();
+
+	public PerKeyAsyncReadWriteExecutor() {
+		this(BASE_CONCURRENCY_LEVEL);
+	}
+
+	public PerKeyAsyncReadWriteExecutor(int concurrencyLevel) {
+		this(concurrencyLevel, ConcurrencySegmentType.SYNCHRONIZED);
+	}
+
+	/**
+	 * @param segmentType implementation used to track the keys in use
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public PerKeyAsyncReadWriteExecutor(int concurrencyLevel, ConcurrencySegmentType segmentType) {
+		this.concurrencyLevel = concurrencyLevel;
+		segments = (ConcurrencySegment<KEY_TYPE, AsyncReadWriteExecutor>[]) new ConcurrencySegment[concurrencyLevel];
+		for (int i = 0; i < concurrencyLevel; i++) {
+			segments[i] = ConcurrencySegment.create(segmentType, AsyncReadWriteExecutor::new);
+		}
+	}
+
+	/**
+	 * Execute a task exclusively, like {@link PerKeySynchronizedExecutor}
+	 */
+	public <R> CompletableFuture<R> execute(KEY_TYPE key, Supplier<CompletableFuture<R>> task) {
+		return execute(key, LockMode.WRITE, task);
+	}
+
+	/**
+	 * @return a future that completes with the result of the task, after the key has been released
+	 */
+	public <R> CompletableFuture<R> execute(KEY_TYPE key, LockMode lockMode, Supplier<CompletableFuture<R>> task) {
+		if (!closeGuard.enter()) {
+			throw new IllegalStateException(PerKeyAsyncReadWriteExecutor.class.getSimpleName() + " is closed");
+		}
+		try {
+			int segmentIndex = HashUtil.boundedHash(key, concurrencyLevel);
+			ConcurrencySegment<KEY_TYPE, AsyncReadWriteExecutor> s = segments[segmentIndex];
+			AsyncReadWriteExecutor executor = s.getValue(key);
+			try {
+				return executor.execute(lockMode, task).whenComplete((result, error) -> {
+					s.releaseKey(key);
+					closeGuard.exit();
+				});
+			} catch (Throwable ex) {
+				s.releaseKey(key);
+				throw ex;
+			}
+		} catch (Throwable ex) {
+			closeGuard.exit();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Rejects new tasks and waits until the queued and running ones are done
+	 */
+	@Override
+	public void close() {
+		closeGuard.close();
+	}
+}
@@ -1,9 +1,12 @@
 
 package org.warp.commonutils.concurrency.executor;
 
+import it.unimi.dsi.fastutil.ints.IntArrays;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 import org.warp.commonutils.functional.IORunnable;
 import org.warp.commonutils.functional.IOSupplier;
@@ -26,25 +29,37 @@ public final class PerKeyReadWriteExecutor<KEY_TYPE> extends ReadWriteExecutor i
 
 	private final ConcurrencySegment<KEY_TYPE, ReadWriteExecutor>[] segments;
 
-	private boolean closed = false;
+	private final StripedCloseGuard closeGuard = new StripedCloseGuard();
+
+	/**
+	 * Taken by {@link #executeAll(Collection, LockMode, Runnable)} only when two distinct keys can't be ordered
+	 */
+	private final Lock tieLock = new ReentrantLock();
 
 	public PerKeyReadWriteExecutor() {
 		this(BASE_CONCURRENCY_LEVEL);
 	}
 
-	@SuppressWarnings({"unchecked"})
 	public PerKeyReadWriteExecutor(int concurrencyLevel) {
+		this(concurrencyLevel, ConcurrencySegmentType.SYNCHRONIZED);
+	}
+
+	/**
+	 * @param segmentType implementation used to track the keys in use
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public PerKeyReadWriteExecutor(int concurrencyLevel, ConcurrencySegmentType segmentType) {
 		super();
 		this.concurrencyLevel = concurrencyLevel;
 		segments = (ConcurrencySegment<KEY_TYPE, ReadWriteExecutor>[]) new ConcurrencySegment[concurrencyLevel];
 		for (int i = 0; i < concurrencyLevel; i++) {
-			segments[i] = new ConcurrencySegment<>(ReadWriteExecutor::new);
+			segments[i] = ConcurrencySegment.create(segmentType, ReadWriteExecutor::new);
 		}
 	}
 
 	public void execute(KEY_TYPE key, ReadWriteExecutor.LockMode lockMode, Runnable task) {
-		super.execute(LockMode.READ, () -> {
-			if (closed) throw new IllegalStateException(PerKeyReadWriteExecutor.class.getSimpleName() + " is closed");
+		enter();
+		try {
 			int segmentIndex = HashUtil.boundedHash(key, concurrencyLevel);
 			ConcurrencySegment<KEY_TYPE, ReadWriteExecutor> s = segments[segmentIndex];
 			ReadWriteExecutor executor = s.getValue(key);
@@ -53,12 +68,14 @@ public final class PerKeyReadWriteExecutor<KEY_TYPE> extends ReadWriteExecutor i
 			} finally {
 				s.releaseKey(key);
 			}
-		});
+		} finally {
+			closeGuard.exit();
+		}
 	}
 
 	public void executeIO(KEY_TYPE key, ReadWriteExecutor.LockMode lockMode, IORunnable task) throws IOException {
-		super.executeIO(LockMode.READ, () -> {
-			if (closed) throw new IllegalStateException(PerKeyReadWriteExecutor.class.getSimpleName() + " is closed");
+		enter();
+		try {
 			int segmentIndex = HashUtil.boundedHash(key, concurrencyLevel);
 			ConcurrencySegment<KEY_TYPE, ReadWriteExecutor> s = segments[segmentIndex];
 			ReadWriteExecutor executor = s.getValue(key);
@@ -67,12 +84,14 @@ public final class PerKeyReadWriteExecutor<KEY_TYPE> extends ReadWriteExecutor i
 			} finally {
 				s.releaseKey(key);
 			}
-		});
+		} finally {
+			closeGuard.exit();
+		}
 	}
 
 	public <R> R execute(KEY_TYPE key, ReadWriteExecutor.LockMode lockMode, Supplier<R> task) {
-		return super.execute(LockMode.READ, () -> {
-			if (closed) throw new IllegalStateException(PerKeyReadWriteExecutor.class.getSimpleName() + " is closed");
+		enter();
+		try {
 			int segmentIndex = HashUtil.boundedHash(key, concurrencyLevel);
 			ConcurrencySegment<KEY_TYPE, ReadWriteExecutor> s = segments[segmentIndex];
 			ReadWriteExecutor executor = s.getValue(key);
@@ -81,13 +100,14 @@ public final class PerKeyReadWriteExecutor<KEY_TYPE> extends ReadWriteExecutor i
 			} finally {
 				s.releaseKey(key);
 			}
-		});
+		} finally {
+			closeGuard.exit();
+		}
 	}
 
 	public <R> R executeIO(KEY_TYPE key, ReadWriteExecutor.LockMode lockMode, IOSupplier<R> task) throws IOException {
-		return super.executeIO(LockMode.READ, () -> {
-			if (closed)
-				throw new IllegalStateException(PerKeyReadWriteExecutor.class.getSimpleName() + " is closed");
+		enter();
+		try {
 			int segmentIndex = HashUtil.boundedHash(key, concurrencyLevel);
 			ConcurrencySegment<KEY_TYPE, ReadWriteExecutor> s = segments[segmentIndex];
 			ReadWriteExecutor executor = s.getValue(key);
@@ -96,13 +116,198 @@ public final class PerKeyReadWriteExecutor<KEY_TYPE> extends ReadWriteExecutor i
 			} finally {
 				s.releaseKey(key);
 			}
+		} finally {
+			closeGuard.exit();
+		}
+	}
+
+	/**
+	 * Execute a task while holding the locks of all the keys.
+	 * The locks are always acquired in the same order, so concurrent calls with overlapping keys can't deadlock
+	 * each other.
+	 */
+	public void executeAll(Collection<KEY_TYPE> keys, ReadWriteExecutor.LockMode lockMode, Runnable task) {
+		enter();
+		try {
+			HeldKeys heldKeys = acquireAll(keys, lockMode);
+			try {
+				task.run();
+			} finally {
+				heldKeys.release();
+			}
+		} finally {
+			closeGuard.exit();
+		}
+	}
+
+	public void executeAllIO(Collection<KEY_TYPE> keys, ReadWriteExecutor.LockMode lockMode, IORunnable task) throws IOException {
+		enter();
+		try {
+			HeldKeys heldKeys = acquireAll(keys, lockMode);
+			try {
+				task.run();
+			} finally {
+				heldKeys.release();
+			}
+		} finally {
+			closeGuard.exit();
+		}
+	}
+
+	public <R> R executeAll(Collection<KEY_TYPE> keys, ReadWriteExecutor.LockMode lockMode, Supplier<R> task) {
+		enter();
+		try {
+			HeldKeys heldKeys = acquireAll(keys, lockMode);
+			try {
+				return task.get();
+			} finally {
+				heldKeys.release();
+			}
+		} finally {
+			closeGuard.exit();
+		}
+	}
+
+	public <R> R executeAllIO(Collection<KEY_TYPE> keys, ReadWriteExecutor.LockMode lockMode, IOSupplier<R> task) throws IOException {
+		enter();
+		try {
+			HeldKeys heldKeys = acquireAll(keys, lockMode);
+			try {
+				return task.get();
+			} finally {
+				heldKeys.release();
+			}
+		} finally {
+			closeGuard.exit();
+		}
+	}
+
+	/**
+	 * Retains all the keys, entering every segment once, then locks them in canonical order:
+	 * segment index, key hash and identity hash of the lock.
+	 * Distinct keys that are equal in all three are locked while holding the {@link #tieLock}.
+	 */
+	private HeldKeys acquireAll(Collection<KEY_TYPE> keys, ReadWriteExecutor.LockMode lockMode) {
+		Object[] unsortedKeys = keys.toArray();
+		int size = unsortedKeys.length;
+		int[] unsortedSegmentIndices = new int[size];
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++) {
+			unsortedSegmentIndices[i] = HashUtil.boundedHash(unsortedKeys[i], concurrencyLevel);
+			order[i] = i;
+		}
+		IntArrays.quickSort(order, (a, b) -> Integer.compare(unsortedSegmentIndices[a], unsortedSegmentIndices[b]));
+		Object[] sortedKeys = new Object[size];
+		int[] segmentIndices = new int[size];
+		for (int i = 0; i < size; i++) {
+			sortedKeys[i] = unsortedKeys[order[i]];
+			segmentIndices[i] = unsortedSegmentIndices[order[i]];
+		}
+
+		Object[] executors = new Object[size];
+		int from = 0;
+		try {
+			while (from < size) {
+				int to = from + 1;
+				while (to < size && segmentIndices[to] == segmentIndices[from]) {
+					to++;
+				}
+				segments[segmentIndices[from]].getValues(sortedKeys, from, to, executors);
+				from = to;
+			}
+		} catch (Throwable ex) {
+			releaseKeys(sortedKeys, segmentIndices, from);
+			throw ex;
+		}
+
+		int[] hashes = new int[size];
+		int[] identities = new int[size];
+		for (int i = 0; i < size; i++) {
+			hashes[i] = sortedKeys[i].hashCode();
+			identities[i] = System.identityHashCode(executors[i]);
+			order[i] = i;
+		}
+		IntArrays.quickSort(order, (a, b) -> {
+			int result = Integer.compare(segmentIndices[a], segmentIndices[b]);
+			if (result == 0) {
+				result = Integer.compare(hashes[a], hashes[b]);
+			}
+			if (result == 0) {
+				result = Integer.compare(identities[a], identities[b]);
+			}
+			return result;
 		});
+		boolean tie = false;
+		for (int i = 1; i < size && !tie; i++) {
+			int a = order[i - 1];
+			int b = order[i];
+			tie = executors[a] != executors[b] && segmentIndices[a] == segmentIndices[b] && hashes[a] == hashes[b]
+					&& identities[a] == identities[b];
+		}
+
+		Lock[] locks = new Lock[size];
+		for (int i = 0; i < size; i++) {
+			// Equal keys share the same reentrant lock, so they are simply locked more than once
+			locks[i] = ((ReadWriteExecutor) executors[order[i]]).getLock(lockMode);
+		}
+		if (tie) {
+			tieLock.lock();
+		}
+		try {
+			for (Lock lock : locks) {
+				lock.lock();
+			}
+		} finally {
+			if (tie) {
+				tieLock.unlock();
+			}
+		}
+		return new HeldKeys(sortedKeys, segmentIndices, locks);
+	}
+
+	private void releaseKeys(Object[] sortedKeys, int[] segmentIndices, int to) {
+		int from = 0;
+		while (from < to) {
+			int end = from + 1;
+			while (end < to && segmentIndices[end] == segmentIndices[from]) {
+				end++;
+			}
+			segments[segmentIndices[from]].releaseKeys(sortedKeys, from, end);
+			from = end;
+		}
 	}
 
+	private final class HeldKeys {
+
+		private final Object[] sortedKeys;
+		private final int[] segmentIndices;
+		private final Lock[] locks;
+
+		private HeldKeys(Object[] sortedKeys, int[] segmentIndices, Lock[] locks) {
+			this.sortedKeys = sortedKeys;
+			this.segmentIndices = segmentIndices;
+			this.locks = locks;
+		}
+
+		private void release() {
+			for (int i = locks.length - 1; i >= 0; i--) {
+				locks[i].unlock();
+			}
+			releaseKeys(sortedKeys, segmentIndices, sortedKeys.length);
+		}
+	}
+
+	private void enter() {
+		if (!closeGuard.enter()) {
+			throw new IllegalStateException(PerKeyReadWriteExecutor.class.getSimpleName() + " is closed");
+		}
+	}
+
+	/**
+	 * Rejects new tasks and waits until the running ones are done
+	 */
 	@Override
 	public void close() {
-		super.execute(LockMode.WRITE, () -> {
-			closed = true;
-		});
+		closeGuard.close();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,220 @@
+package org.warp.commonutils.concurrency.executor;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.warp.commonutils.random.HashUtil;
+
+/**
+ * An Executor which runs tasks on a <b>per-key basis</b> on a shared {@link BoundedExecutorService}, like actors
+ * with a mailbox per key. The calling thread is never suspended, as long as the shared executor implements
+ * {@link BoundedExecutorService#submitAsync(Callable)} without blocking, like the bounded executors of this package:
+ * a blocking implementation would block the worker threads that submit the next tasks, and could deadlock them.
+ * Tasks with equals keys run one at a time, in the order in which they have been executed.
+ * Tasks with keys that are not equals can run concurrently, limited only by the shared executor.
+ * <p>
+ * Every key in use has a queue of tasks, which is removed when its last task completes. A key with queued tasks
+ * occupies at most one slot of the shared executor, so a busy key can't monopolize it: each task is submitted
+ * with {@link BoundedExecutorService#submitAsync(Callable)} after the previous one has completed.
+ * If the shared executor is busy and rejects a task, the task stays at the head of its queue and is submitted again
+ * after {@value #RETRY_DELAY_MILLIS} ms, so no task is lost during a burst. If the shared executor is shut down, or
+ * the task expires in its queue, the future of the task fails and the next task of the same key is submitted.
+ *
+ * @see PerKeyAsyncReadWriteExecutor
+ */
+public final class PerKeySerialExecutor<KEY_TYPE> implements Closeable {
+
+	private static final int BASE_CONCURRENCY_LEVEL = 32;
+
+	private static final long RETRY_DELAY_MILLIS = 1;
+
+	private static final Executor RETRY_EXECUTOR = CompletableFuture.delayedExecutor(RETRY_DELAY_MILLIS,
+			TimeUnit.MILLISECONDS
+	);
+
+	private final BoundedExecutorService executor;
+
+	private final int concurrencyLevel;
+
+	private final ConcurrencySegment<KEY_TYPE, TaskQueue>[] segments;
+
+	private final StripedCloseGuard closeGuard = new StripedCloseGuard();
+
+	public PerKeySerialExecutor(BoundedExecutorService executor) {
+		this(executor, BASE_CONCURRENCY_LEVEL);
+	}
+
+	public PerKeySerialExecutor(BoundedExecutorService executor, int concurrencyLevel) {
+		this(executor, concurrencyLevel, ConcurrencySegmentType.SYNCHRONIZED);
+	}
+
+	/**
+	 * @param executor    executor that runs the tasks. It's not shut down by {@link #close()}
+	 * @param segmentType implementation used to track the keys in use
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public PerKeySerialExecutor(BoundedExecutorService executor, int concurrencyLevel, ConcurrencySegmentType segmentType) {
+		this.executor = executor;
+		this.concurrencyLevel = concurrencyLevel;
+		segments = (ConcurrencySegment<KEY_TYPE, TaskQueue>[]) new ConcurrencySegment[concurrencyLevel];
+		for (int i = 0; i < concurrencyLevel; i++) {
+			segments[i] = ConcurrencySegment.create(segmentType, TaskQueue::new);
+		}
+	}
+
+	/**
+	 * @return a future that completes with the result of the task
+	 */
+	public CompletableFuture<Void> execute(KEY_TYPE key, Runnable task) {
+		return execute(key, () -> {
+			task.run();
+			return null;
+		});
+	}
+
+	/**
+	 * @return a future that completes with the result of the task, after the next task of the same key, if any, has
+	 * been submitted
+	 */
+	public <R> CompletableFuture<R> execute(KEY_TYPE key, Callable<R> task) {
+		if (!closeGuard.enter()) {
+			throw new IllegalStateException(PerKeySerialExecutor.class.getSimpleName() + " is closed");
+		}
+		try {
+			int segmentIndex = HashUtil.boundedHash(key, concurrencyLevel);
+			ConcurrencySegment<KEY_TYPE, TaskQueue> s = segments[segmentIndex];
+			// Every queued task holds the key, so the queue is removed when its last task releases it
+			TaskQueue taskQueue = s.getValue(key);
+			var queuedTask = new QueuedTask<>(key, s, task);
+			taskQueue.add(queuedTask);
+			return queuedTask.future;
+		} catch (Throwable ex) {
+			closeGuard.exit();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Rejects new tasks and waits until the queued and running ones are done
+	 */
+	@Override
+	public void close() {
+		closeGuard.close();
+	}
+
+	private final class TaskQueue {
+
+		private final ConcurrentLinkedQueue<QueuedTask<?>> tasks = new ConcurrentLinkedQueue<>();
+
+		/**
+		 * Number of queued tasks, including the running one. The task that makes it non-zero submits the first task,
+		 * and each completing task submits the next one
+		 */
+		private final AtomicInteger pending = new AtomicInteger();
+
+		private final Callable<Void> runNext = this::runNext;
+
+		private void add(QueuedTask<?> task) {
+			tasks.add(task);
+			if (pending.getAndIncrement() == 0) {
+				submitNext();
+			}
+		}
+
+		private void submitNext() {
+			while (true) {
+				CompletableFuture<Void> submission = executor.submitAsync(runNext);
+				if (!submission.isCompletedExceptionally()) {
+					submission.whenComplete((result, error) -> {
+						// The task didn't run: it has been rejected, or it expired in the queue
+						if (error != null && failNext(error)) {
+							submitNext();
+						}
+					});
+					return;
+				}
+				if (!executor.isShutdown()) {
+					// Busy: keep the task queued, and submit it again later without blocking the calling thread
+					RETRY_EXECUTOR.execute(this::submitNext);
+					return;
+				}
+				// Rejected immediately: fail the tasks in a loop instead of recursively
+				Throwable error = submission.handle((result, ex) -> ex).join();
+				if (!failNext(error)) {
+					return;
+				}
+			}
+		}
+
+		private Void runNext() {
+			QueuedTask<?> next = tasks.poll();
+			next.run();
+			if (complete(next)) {
+				submitNext();
+			}
+			next.publishResult();
+			return null;
+		}
+
+		/**
+		 * @return true if more tasks are queued
+		 */
+		private boolean failNext(Throwable error) {
+			QueuedTask<?> next = tasks.poll();
+			next.error = error;
+			boolean more = complete(next);
+			next.publishResult();
+			return more;
+		}
+
+		/**
+		 * @return true if more tasks are queued
+		 */
+		private boolean complete(QueuedTask<?> task) {
+			boolean more = pending.decrementAndGet() > 0;
+			task.segment.releaseKey(task.key);
+			closeGuard.exit();
+			return more;
+		}
+	}
+
+	private final class QueuedTask<R> {
+
+		private final KEY_TYPE key;
+		private final ConcurrencySegment<KEY_TYPE, TaskQueue> segment;
+		private final Callable<R> task;
+		private final CompletableFuture<R> future = new CompletableFuture<>();
+		private R result;
+		private Throwable error;
+
+		private QueuedTask(KEY_TYPE key, ConcurrencySegment<KEY_TYPE, TaskQueue> segment, Callable<R> task) {
+			this.key = key;
+			this.segment = segment;
+			this.task = task;
+		}
+
+		private void run() {
+			if (future.isDone()) {
+				// Cancelled while queued
+				return;
+			}
+			try {
+				result = task.call();
+			} catch (Throwable ex) {
+				error = ex;
+			}
+		}
+
+		private void publishResult() {
+			if (error != null) {
+				future.completeExceptionally(error);
+			} else {
+				future.complete(result);
+			}
+		}
+	}
+}
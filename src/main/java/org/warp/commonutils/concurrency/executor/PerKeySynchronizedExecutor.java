@@ -26,24 +26,31 @@ public final class PerKeySynchronizedExecutor<KEY_TYPE> extends ReadWriteExecuto
 
 	private final ConcurrencySegment<KEY_TYPE, SynchronizedExecutor>[] segments;
 
-	private boolean closed = false;
+	private final StripedCloseGuard closeGuard = new StripedCloseGuard();
 
 	public PerKeySynchronizedExecutor() {
 		this(BASE_CONCURRENCY_LEVEL);
 	}
 
-	@SuppressWarnings({"unchecked"})
 	public PerKeySynchronizedExecutor(int concurrencyLevel) {
+		this(concurrencyLevel, ConcurrencySegmentType.SYNCHRONIZED);
+	}
+
+	/**
+	 * @param segmentType implementation used to track the keys in use
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public PerKeySynchronizedExecutor(int concurrencyLevel, ConcurrencySegmentType segmentType) {
 		this.concurrencyLevel = concurrencyLevel;
 		segments = (ConcurrencySegment<KEY_TYPE, SynchronizedExecutor>[]) new ConcurrencySegment[concurrencyLevel];
 		for (int i = 0; i < concurrencyLevel; i++) {
-			segments[i] = new ConcurrencySegment<>(SynchronizedExecutor::new);
+			segments[i] = ConcurrencySegment.create(segmentType, SynchronizedExecutor::new);
 		}
 	}
 
 	public void execute(KEY_TYPE key, Runnable task) {
-		super.execute(LockMode.READ, () -> {
-			if (closed) throw new IllegalStateException(PerKeySynchronizedExecutor.class.getSimpleName() + " is closed");
+		enter();
+		try {
 			int segmentIndex = HashUtil.boundedHash(key, concurrencyLevel);
 			ConcurrencySegment<KEY_TYPE, SynchronizedExecutor> s = segments[segmentIndex];
 			SynchronizedExecutor executor = s.getValue(key);
@@ -52,12 +59,14 @@ public final class PerKeySynchronizedExecutor<KEY_TYPE> extends ReadWriteExecuto
 			} finally {
 				s.releaseKey(key);
 			}
-		});
+		} finally {
+			closeGuard.exit();
+		}
 	}
 
 	public void executeIO(KEY_TYPE key, IORunnable task) throws IOException {
-		super.executeIO(LockMode.READ, () -> {
-			if (closed) throw new IllegalStateException(PerKeySynchronizedExecutor.class.getSimpleName() + " is closed");
+		enter();
+		try {
 			int segmentIndex = HashUtil.boundedHash(key, concurrencyLevel);
 			ConcurrencySegment<KEY_TYPE, SynchronizedExecutor> s = segments[segmentIndex];
 			SynchronizedExecutor executor = s.getValue(key);
@@ -66,12 +75,14 @@ public final class PerKeySynchronizedExecutor<KEY_TYPE> extends ReadWriteExecuto
 			} finally {
 				s.releaseKey(key);
 			}
-		});
+		} finally {
+			closeGuard.exit();
+		}
 	}
 
 	public <R> R execute(KEY_TYPE key, Supplier<R> task) {
-		return super.execute(LockMode.READ, () -> {
-			if (closed) throw new IllegalStateException(PerKeySynchronizedExecutor.class.getSimpleName() + " is closed");
+		enter();
+		try {
 			int segmentIndex = HashUtil.boundedHash(key, concurrencyLevel);
 			ConcurrencySegment<KEY_TYPE, SynchronizedExecutor> s = segments[segmentIndex];
 			SynchronizedExecutor executor = s.getValue(key);
@@ -80,12 +91,14 @@ public final class PerKeySynchronizedExecutor<KEY_TYPE> extends ReadWriteExecuto
 			} finally {
 				s.releaseKey(key);
 			}
-		});
+		} finally {
+			closeGuard.exit();
+		}
 	}
 
 	public <R> R executeIO(KEY_TYPE key, IOSupplier<R> task) throws IOException {
-		return super.executeIO(LockMode.READ, () -> {
-			if (closed) throw new IllegalStateException(PerKeySynchronizedExecutor.class.getSimpleName() + " is closed");
+		enter();
+		try {
 			int segmentIndex = HashUtil.boundedHash(key, concurrencyLevel);
 			ConcurrencySegment<KEY_TYPE, SynchronizedExecutor> s = segments[segmentIndex];
 			SynchronizedExecutor executor = s.getValue(key);
@@ -94,13 +107,22 @@ public final class PerKeySynchronizedExecutor<KEY_TYPE> extends ReadWriteExecuto
 			} finally {
 				s.releaseKey(key);
 			}
-		});
+		} finally {
+			closeGuard.exit();
+		}
+	}
+
+	private void enter() {
+		if (!closeGuard.enter()) {
+			throw new IllegalStateException(PerKeySynchronizedExecutor.class.getSimpleName() + " is closed");
+		}
 	}
 
+	/**
+	 * Rejects new tasks and waits until the running ones are done
+	 */
 	@Override
 	public void close() {
-		super.execute(LockMode.WRITE, () -> {
-			closed = true;
-		});
+		closeGuard.close();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+package org.warp.commonutils.concurrency.executor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * A {@link ConcurrencySegment} that never takes a monitor.
+ * Entries are reference-counted with CAS and, when their last user releases them,
+ * they are returned to a bounded pool together with their value, so that the next key can reuse them.
+ */
+final class PooledConcurrencySegment<K, V> implements ConcurrencySegment<K, V> {
+
+	private static final int DEFAULT_POOL_SIZE = 16;
+
+	private final ConcurrentHashMap<K, Entry<K, V>> store = new ConcurrentHashMap<>();
+	private final AtomicReferenceArray<Entry<K, V>> pool;
+	private final int poolMask;
+	private final Supplier<V> valuesSupplier;
+
+	PooledConcurrencySegment(Supplier<V> valuesSupplier) {
+		this(valuesSupplier, DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * @param poolSize maximum number of idle entries kept for reuse, rounded up to a power of two
+	 */
+	PooledConcurrencySegment(Supplier<V> valuesSupplier, int poolSize) {
+		if (poolSize < 1) {
+			throw new IllegalArgumentException("Pool size must be positive");
+		}
+		int size = Integer.highestOneBit(poolSize - 1) << 1;
+		if (size == 0) {
+			size = 1;
+		}
+		this.pool = new AtomicReferenceArray<>(size);
+		this.poolMask = size - 1;
+		this.valuesSupplier = valuesSupplier;
+	}
+
+	@Override
+	public V getValue(K key) {
+		while (true) {
+			Entry<K, V> current = store.get(key);
+			if (current == null) {
+				Entry<K, V> created = takeFromPool(key);
+				current = store.putIfAbsent(key, created);
+				if (current == null) {
+					return created.value;
+				}
+				// Another thread mapped the key first, give the unpublished entry back
+				release(created);
+			}
+			if (current.tryRetain()) {
+				if (key.equals(current.key) && store.get(key) == current) {
+					return current.value;
+				}
+				// The entry has been recycled after it was read from the map
+				release(current);
+			}
+			// The entry is being removed: wait for the map to be updated
+			Thread.onSpinWait();
+		}
+	}
+
+	@Override
+	public void releaseKey(K key) {
+		release(store.get(key));
+	}
+
+	private void release(Entry<K, V> entry) {
+		while (true) {
+			int users = entry.users;
+			if (users == 1) {
+				K key = entry.key;
+				if (Entry.USERS.compareAndSet(entry, 1, 0)) {
+					store.remove(key, entry);
+					entry.key = null;
+					recycle(entry);
+					return;
+				}
+			} else if (Entry.USERS.compareAndSet(entry, users, users - 1)) {
+				return;
+			}
+		}
+	}
+
+	private Entry<K, V> takeFromPool(K key) {
+		int start = probe();
+		for (int i = 0; i <= poolMask; i++) {
+			int index = (start + i) & poolMask;
+			Entry<K, V> pooled = pool.get(index);
+			if (pooled != null && pool.compareAndSet(index, pooled, null)) {
+				pooled.key = key;
+				// Volatile write: publishes the new key to threads that retain this entry afterwards
+				pooled.users = 1;
+				return pooled;
+			}
+		}
+		return new Entry<>(key, valuesSupplier.get());
+	}
+
+	private void recycle(Entry<K, V> entry) {
+		int start = probe();
+		for (int i = 0; i <= poolMask; i++) {
+			int index = (start + i) & poolMask;
+			if (pool.get(index) == null && pool.compareAndSet(index, null, entry)) {
+				return;
+			}
+		}
+		// The pool is full, let the entry be garbage collected
+	}
+
+	private int probe() {
+		return (int) Thread.currentThread().getId() & poolMask;
+	}
+
+	private static final class Entry<K, V> {
+
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<Entry> USERS = AtomicIntegerFieldUpdater.newUpdater(Entry.class,
+				"users"
+		);
+
+		private volatile K key;
+		private volatile int users = 1;
+		private final V value;
+
+		private Entry(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		/**
+		 * @return false if the entry has no users anymore and is being removed or pooled
+		 */
+		@SuppressWarnings("unchecked")
+		private boolean tryRetain() {
+			while (true) {
+				int users = this.users;
+				if (users == 0) {
+					return false;
+				}
+				if (USERS.compareAndSet(this, users, users + 1)) {
+					return true;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,437 @@
+package org.warp.commonutils.concurrency.executor;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import javax.annotation.Nonnull;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link BoundedExecutorService} that runs the queued tasks by priority.
+ * <p>
+ * The tasks are queued in a fixed number of lanes: lane 0 has the highest priority, and it's the lane of the tasks
+ * submitted with the methods of {@link java.util.concurrent.ExecutorService}. Every lane has its own limit of queued
+ * tasks, so a flood of background tasks can't fill the queue of the latency-sensitive ones: when a lane is full,
+ * the submitting thread blocks like in {@link BlockingOnFullQueueExecutorServiceDecorator}.
+ * <p>
+ * To avoid starvation, a queued task gains one lane of priority every {@code agingInterval}: a free thread runs the
+ * task with the lowest {@code lane - waitedTime / agingInterval}, and the oldest one if more tasks have the same
+ * value.
+ */
+public class PriorityBoundedExecutorService extends AbstractExecutorService implements BoundedExecutorService {
+
+	private final ThreadPoolExecutor workers;
+
+	/**
+	 * Guards the lanes, {@link #queuedTasks} and {@link #shutdown}
+	 */
+	private final ReentrantLock lanesLock = new ReentrantLock();
+
+	private final ArrayDeque<QueuedTask>[] lanes;
+
+	/**
+	 * Permits of the lanes, null for the lanes without limits
+	 */
+	private final Semaphore[] laneLimits;
+
+	private int queuedTasks;
+
+	private boolean shutdown;
+
+	private volatile boolean ignoreTaskLimit;
+
+	private final long agingIntervalNanos;
+
+	@Nonnull
+	private final Duration timeout;
+
+	private final @Nullable BiConsumer<Boolean, Integer> queueSizeStatus;
+
+	@Nonnull
+	private final ReentrantLock queueSizeStatusLock = new ReentrantLock();
+
+	/**
+	 * Executed once by the workers for each queued task: it runs the queued task with the highest priority
+	 */
+	private final Runnable runNextTask = this::runNextTask;
+
+	/**
+	 * @param maximumLaneTasks maximum number of queued tasks of each lane, or zero for no limit.
+	 *                         The length of the array is the number of lanes
+	 * @param agingInterval    time after which a queued task is considered one lane more important
+	 * @param maximumTimeout   maximum time to wait for a free slot of a full lane
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public PriorityBoundedExecutorService(int corePoolSize,
+			long keepAliveTime,
+			@Nonnull TimeUnit unit,
+			@Nonnull ThreadFactory threadFactory,
+			@Nonnull int[] maximumLaneTasks,
+			@Nonnull Duration agingInterval,
+			@Nonnull Duration maximumTimeout,
+			@Nullable BiConsumer<Boolean, Integer> queueSizeStatus) {
+		if (maximumLaneTasks.length == 0) {
+			throw new IllegalArgumentException("At least one lane is required");
+		}
+		Objects.requireNonNull(agingInterval, "'agingInterval' must not be null");
+		if (agingInterval.isNegative() || agingInterval.isZero()) {
+			throw new IllegalArgumentException("'agingInterval' must be positive");
+		}
+		this.timeout = Objects.requireNonNull(maximumTimeout, "'maximumTimeout' must not be null");
+		if (this.timeout.isNegative()) {
+			throw new IllegalArgumentException("'maximumTimeout' must not be negative");
+		}
+		this.lanes = new ArrayDeque[maximumLaneTasks.length];
+		this.laneLimits = new Semaphore[maximumLaneTasks.length];
+		for (int i = 0; i < maximumLaneTasks.length; i++) {
+			if (maximumLaneTasks[i] < 0) {
+				throw new IllegalArgumentException(String.format("At least zero tasks must be permitted, not '%d'",
+						maximumLaneTasks[i]
+				));
+			}
+			this.lanes[i] = new ArrayDeque<>();
+			this.laneLimits[i] = maximumLaneTasks[i] == 0 ? null : new Semaphore(maximumLaneTasks[i]);
+		}
+		this.agingIntervalNanos = safeToNanos(agingInterval);
+		this.queueSizeStatus = queueSizeStatus;
+		this.workers = new ThreadPoolExecutor(corePoolSize,
+				corePoolSize,
+				keepAliveTime,
+				unit,
+				new LinkedBlockingQueue<>(),
+				threadFactory
+		);
+	}
+
+	private static long safeToNanos(Duration duration) {
+		try {
+			return duration.toNanos();
+		} catch (ArithmeticException ex) {
+			return Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * @return number of priority lanes
+	 */
+	public int getLanes() {
+		return lanes.length;
+	}
+
+	/**
+	 * @return number of tasks submitted and not started yet
+	 */
+	public int getQueuedTasks() {
+		lanesLock.lock();
+		try {
+			return queuedTasks;
+		} finally {
+			lanesLock.unlock();
+		}
+	}
+
+	private void acquireLanePermit(int lane) {
+		var laneLimit = laneLimits[lane];
+		if (laneLimit == null || ignoreTaskLimit) {
+			return;
+		}
+		try {
+			if (laneLimit.availablePermits() == 0) {
+				reportFullLane(laneLimit);
+			}
+			// attempt to acquire permit for task execution
+			if (!laneLimit.tryAcquire(safeToNanos(this.timeout), NANOSECONDS)) {
+				throw new RejectedExecutionException(String.format("Lane %d of executor '%s' busy", lane, this));
+			}
+		} catch (final InterruptedException e) {
+			// restore interrupt status
+			Thread.currentThread().interrupt();
+			throw new RejectedExecutionException(e);
+		}
+	}
+
+	/**
+	 * @return false if the lane is full
+	 */
+	private boolean tryAcquireLanePermit(int lane) {
+		var laneLimit = laneLimits[lane];
+		if (laneLimit == null || ignoreTaskLimit || laneLimit.tryAcquire()) {
+			return true;
+		}
+		reportFullLane(laneLimit);
+		return false;
+	}
+
+	private void reportFullLane(Semaphore laneLimit) {
+		queueSizeStatusLock.lock();
+		try {
+			if (queueSizeStatus != null) {
+				queueSizeStatus.accept(true,
+						getQueuedTasks() + (laneLimit.hasQueuedThreads() ? laneLimit.getQueueLength() : 0)
+				);
+			}
+		} finally {
+			queueSizeStatusLock.unlock();
+		}
+	}
+
+	private void releaseLanePermit(int lane) {
+		var laneLimit = laneLimits[lane];
+		if (laneLimit != null) {
+			laneLimit.release();
+		}
+	}
+
+	/**
+	 * Execute the command in the specified lane
+	 *
+	 * @param lane priority lane, from 0 (highest priority) to {@link #getLanes()} - 1
+	 */
+	public void execute(int lane, @NotNull Runnable command) {
+		Objects.requireNonNull(command, "'command' must not be null");
+		Objects.checkIndex(lane, lanes.length);
+		acquireLanePermit(lane);
+		enqueue(lane, command);
+	}
+
+	/**
+	 * Queues a command that already holds a permit of its lane
+	 */
+	private void enqueue(int lane, Runnable command) {
+		lanesLock.lock();
+		try {
+			if (shutdown) {
+				releaseLanePermit(lane);
+				throw new RejectedExecutionException(String.format("Executor '%s' is shut down", this));
+			}
+			lanes[lane].add(new QueuedTask(command, lane, System.nanoTime()));
+			queuedTasks++;
+			// Called with the lock held, so that the workers can't be shut down in the meantime
+			workers.execute(runNextTask);
+		} finally {
+			lanesLock.unlock();
+		}
+	}
+
+	/**
+	 * Submit the task in the specified lane
+	 *
+	 * @param lane priority lane, from 0 (highest priority) to {@link #getLanes()} - 1
+	 */
+	public <T> Future<T> submit(int lane, @NotNull Callable<T> task) {
+		RunnableFuture<T> future = newTaskFor(Objects.requireNonNull(task, "'task' must not be null"));
+		execute(lane, future);
+		return future;
+	}
+
+	/**
+	 * Submit the task in the specified lane
+	 *
+	 * @param lane priority lane, from 0 (highest priority) to {@link #getLanes()} - 1
+	 */
+	public Future<?> submit(int lane, @NotNull Runnable task) {
+		RunnableFuture<Void> future = newTaskFor(Objects.requireNonNull(task, "'task' must not be null"), null);
+		execute(lane, future);
+		return future;
+	}
+
+	/**
+	 * Submit the task in the specified lane, without waiting for a free slot of the lane
+	 *
+	 * @param lane priority lane, from 0 (highest priority) to {@link #getLanes()} - 1
+	 * @return a future completed with the result of the task, or with a {@link RejectedExecutionException} if the
+	 * lane is full or the executor is shut down
+	 */
+	public <T> CompletableFuture<T> submitAsync(int lane, @NotNull Callable<T> task) {
+		Objects.requireNonNull(task, "'task' must not be null");
+		Objects.checkIndex(lane, lanes.length);
+		var future = new CompletableFuture<T>();
+		try {
+			if (!tryAcquireLanePermit(lane)) {
+				throw new RejectedExecutionException(String.format("Lane %d of executor '%s' busy", lane, this));
+			}
+			enqueue(lane, () -> {
+				try {
+					future.complete(task.call());
+				} catch (Throwable ex) {
+					future.completeExceptionally(ex);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+		}
+		return future;
+	}
+
+	@Override
+	public void execute(@NotNull Runnable command) {
+		execute(0, command);
+	}
+
+	/**
+	 * Submit the task in the highest priority lane, without waiting for a free slot of the lane
+	 */
+	@Override
+	public <T> CompletableFuture<T> submitAsync(@NotNull Callable<T> task) {
+		return submitAsync(0, task);
+	}
+
+	private void runNextTask() {
+		QueuedTask next;
+		int queueSize;
+		lanesLock.lock();
+		try {
+			next = pollNextTask(System.nanoTime());
+			if (next == null) {
+				// The task has been removed by shutdownNow
+				return;
+			}
+			queueSize = --queuedTasks;
+		} finally {
+			lanesLock.unlock();
+		}
+		// Released before reporting, so that the report of the last started task doesn't say that its lane is full
+		releaseLanePermit(next.lane);
+		try {
+			queueSizeStatusLock.lock();
+			try {
+				if (queueSizeStatus != null) {
+					queueSizeStatus.accept(!ignoreTaskLimit && isAnyLaneFull(), queueSize);
+				}
+			} finally {
+				queueSizeStatusLock.unlock();
+			}
+		} finally {
+			next.task.run();
+		}
+	}
+
+	/**
+	 * The oldest task of each lane is the most important of its lane, so only the heads of the lanes are compared
+	 */
+	private QueuedTask pollNextTask(long now) {
+		int bestLane = -1;
+		long bestPriority = Long.MAX_VALUE;
+		long bestEnqueueNanos = 0;
+		for (int lane = 0; lane < lanes.length; lane++) {
+			QueuedTask head = lanes[lane].peek();
+			if (head == null) {
+				continue;
+			}
+			long priority = lane - (now - head.enqueueNanos) / agingIntervalNanos;
+			if (bestLane == -1 || priority < bestPriority
+					|| (priority == bestPriority && head.enqueueNanos - bestEnqueueNanos < 0)) {
+				bestLane = lane;
+				bestPriority = priority;
+				bestEnqueueNanos = head.enqueueNanos;
+			}
+		}
+		return bestLane == -1 ? null : lanes[bestLane].poll();
+	}
+
+	private boolean isAnyLaneFull() {
+		for (Semaphore laneLimit : laneLimits) {
+			if (laneLimit != null && laneLimit.availablePermits() == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void releaseWaitingProducers() {
+		this.ignoreTaskLimit = true;
+		for (Semaphore laneLimit : laneLimits) {
+			if (laneLimit != null) {
+				while (laneLimit.hasQueuedThreads()) {
+					laneLimit.release(10);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void shutdown() {
+		lanesLock.lock();
+		try {
+			shutdown = true;
+			workers.shutdown();
+		} finally {
+			lanesLock.unlock();
+		}
+		releaseWaitingProducers();
+	}
+
+	@NotNull
+	@Override
+	public List<Runnable> shutdownNow() {
+		List<Runnable> notStarted = new ArrayList<>();
+		lanesLock.lock();
+		try {
+			shutdown = true;
+			for (ArrayDeque<QueuedTask> lane : lanes) {
+				QueuedTask queuedTask;
+				while ((queuedTask = lane.poll()) != null) {
+					notStarted.add(queuedTask.task);
+				}
+			}
+			queuedTasks = 0;
+			workers.shutdownNow();
+		} finally {
+			lanesLock.unlock();
+		}
+		releaseWaitingProducers();
+		return notStarted;
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return workers.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return workers.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+		return workers.awaitTermination(timeout, unit);
+	}
+
+	@Override
+	public final String toString() {
+		return String.format("%s[lanes='%s',timeout='%s',workers='%s']", getClass().getSimpleName(), lanes.length,
+				this.timeout, this.workers);
+	}
+
+	private static final class QueuedTask {
+
+		private final Runnable task;
+		private final int lane;
+		private final long enqueueNanos;
+
+		private QueuedTask(Runnable task, int lane, long enqueueNanos) {
+			this.task = task;
+			this.lane = lane;
+			this.enqueueNanos = enqueueNanos;
+		}
+	}
+}
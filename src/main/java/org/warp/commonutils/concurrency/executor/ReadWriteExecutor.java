@@ -38,6 +38,10 @@ public class ReadWriteExecutor {
 		return LockUtils.lockIO(lockMode == LockMode.READ ? lock.readLock() : lock.writeLock(), task);
 	}
 	
+	Lock getLock(LockMode lockMode) {
+		return lockMode == LockMode.READ ? lock.readLock() : lock.writeLock();
+	}
+
 	public enum LockMode {
 		READ,
 		WRITE
@@ -0,0 +1,85 @@
+package org.warp.commonutils.concurrency.executor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tracks the operations running inside a closeable executor, so that {@link #close()} can wait for them.
+ * <p>
+ * Each thread counts its operations on its own padded stripe, so threads entering and exiting concurrently do not
+ * write to a shared cache line. Only {@link #close()} reads every stripe.
+ * The count of a single stripe can become negative when an operation exits on a different thread than the one
+ * that entered it, but the sum of all the stripes is always the number of running operations.
+ */
+final class StripedCloseGuard {
+
+	/**
+	 * Distance between two stripes, in longs: 128 bytes keep every stripe on its own cache line pair
+	 */
+	private static final int PADDING = 16;
+
+	private final AtomicLongArray counters;
+	private final int mask;
+	private volatile boolean closed;
+
+	StripedCloseGuard() {
+		int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+		this.counters = new AtomicLongArray(stripes * PADDING);
+		this.mask = stripes - 1;
+	}
+
+	/**
+	 * Registers a new running operation
+	 *
+	 * @return false if the guard is closed. In that case the operation must not run and {@link #exit()} must not be called
+	 */
+	boolean enter() {
+		int index = index();
+		counters.getAndIncrement(index);
+		// The increment is visible to close() before this read, so either close() waits
+		// for this operation or this operation sees the closed flag
+		if (closed) {
+			counters.getAndDecrement(index);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Unregisters a running operation
+	 */
+	void exit() {
+		counters.getAndDecrement(index());
+	}
+
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Rejects new operations and waits until the running ones have exited
+	 */
+	void close() {
+		closed = true;
+		int spins = 0;
+		while (runningOperations() != 0) {
+			if (spins++ < 100) {
+				Thread.onSpinWait();
+			} else {
+				LockSupport.parkNanos(100_000L);
+			}
+		}
+	}
+
+	private long runningOperations() {
+		long sum = 0;
+		for (int i = 0; i <= mask; i++) {
+			sum += counters.get(i * PADDING);
+		}
+		return sum;
+	}
+
+	private int index() {
+		return ((int) Thread.currentThread().getId() & mask) * PADDING;
+	}
+}
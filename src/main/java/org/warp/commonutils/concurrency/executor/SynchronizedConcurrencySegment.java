@@ -0,0 +1,78 @@
+package org.warp.commonutils.concurrency.executor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Segment guarded by a single {@link ReentrantLock}, which, unlike a monitor, doesn't pin the carrier thread of a
+ * virtual thread that waits for it
+ */
+final class SynchronizedConcurrencySegment<K, V> implements ConcurrencySegment<K, V> {
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Map<K, Entry> store = new HashMap<K, Entry>();
+	private final Supplier<V> valuesSupplier;
+
+	SynchronizedConcurrencySegment(Supplier<V> valuesSupplier) {
+		this.valuesSupplier = valuesSupplier;
+	}
+
+	@Override
+	public V getValue(K key) {
+		lock.lock();
+		try {
+			Entry current = store.get(key);
+			if (current == null) {
+				current = new Entry();
+				store.put(key, current);
+			} else {
+				current.users++;
+			}
+			return current.value;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void releaseKey(K key) {
+		lock.lock();
+		try {
+			Entry current = store.get(key);
+			if (current.users == 1) {
+				store.remove(key);
+			} else {
+				current.users--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void getValues(Object[] keys, int from, int to, Object[] values) {
+		lock.lock();
+		try {
+			ConcurrencySegment.super.getValues(keys, from, to, values);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void releaseKeys(Object[] keys, int from, int to) {
+		lock.lock();
+		try {
+			ConcurrencySegment.super.releaseKeys(keys, from, to);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private class Entry {
+		private int users = 1;
+		private V value = valuesSupplier.get();
+	}
+}
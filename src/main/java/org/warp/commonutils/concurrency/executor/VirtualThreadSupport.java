@@ -0,0 +1,88 @@
+package org.warp.commonutils.concurrency.executor;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.warp.commonutils.type.ShortNamedThreadFactory;
+
+/**
+ * Access to the virtual threads of Java 21 from code compiled for older releases.
+ * <p>
+ * The virtual threads API is looked up by reflection once, so this class can be loaded on any runtime:
+ * when the API is missing, the executors use a cached pool of platform threads instead.
+ */
+public final class VirtualThreadSupport {
+
+	private static final Method OF_VIRTUAL;
+	private static final Method BUILDER_NAME;
+	private static final Method BUILDER_FACTORY;
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+	static {
+		Method ofVirtual = null;
+		Method builderName = null;
+		Method builderFactory = null;
+		Method newThreadPerTaskExecutor = null;
+		try {
+			var builderClass = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			builderName = builderClass.getMethod("name", String.class, long.class);
+			builderFactory = builderClass.getMethod("factory");
+			newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			// Fails if virtual threads are a preview feature that is not enabled
+			ofVirtual.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		BUILDER_NAME = builderName;
+		BUILDER_FACTORY = builderFactory;
+		NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+	}
+
+	private VirtualThreadSupport() {
+	}
+
+	/**
+	 * @return true if the runtime supports virtual threads
+	 */
+	public static boolean isAvailable() {
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * @param threadNamePrefix prefix of the names of the threads, followed by a progressive number
+	 * @return a factory of virtual threads
+	 * @throws UnsupportedOperationException if the runtime doesn't support virtual threads
+	 */
+	public static ThreadFactory virtualThreadFactory(String threadNamePrefix) {
+		if (!isAvailable()) {
+			throw new UnsupportedOperationException("Virtual threads are not supported by this runtime");
+		}
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+			builder = BUILDER_NAME.invoke(builder, threadNamePrefix + "-", 0L);
+			return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+		} catch (IllegalAccessException | InvocationTargetException ex) {
+			throw new UnsupportedOperationException("Virtual threads are not supported by this runtime", ex);
+		}
+	}
+
+	/**
+	 * @param threadNamePrefix prefix of the names of the threads
+	 * @return an executor that starts a new virtual thread for each task or, if the runtime doesn't support virtual
+	 * threads, a cached pool of platform threads, which reuses the idle threads and starts a new one when none is idle
+	 */
+	public static ExecutorService newThreadPerTaskExecutor(String threadNamePrefix) {
+		if (!isAvailable()) {
+			return Executors.newCachedThreadPool(new ShortNamedThreadFactory(threadNamePrefix));
+		}
+		try {
+			return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, virtualThreadFactory(threadNamePrefix));
+		} catch (IllegalAccessException | InvocationTargetException ex) {
+			throw new UnsupportedOperationException("Virtual threads are not supported by this runtime", ex);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package org.warp.commonutils.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations, in nanoseconds, that can be updated concurrently without locks.
+ * <p>
+ * Every power of two is split into {@value #SUB_BUCKETS} buckets, so the percentiles have a relative error of 25% at
+ * most, with a fixed memory footprint. Each bucket is a {@link LongAdder}, so threads that record at the same time
+ * don't contend on the same counter.
+ */
+public class AtomicLatencyHistogram implements AtomicLatencyHistogramSnapshot {
+
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder totalNanos = new LongAdder();
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	public AtomicLatencyHistogram() {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	static int bucketIndex(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) Math.max(0, nanos);
+		}
+		int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the highest value that falls in the bucket
+	 */
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+		long upperBound = ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+		// The last bucket would overflow
+		return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+	}
+
+	/**
+	 * @param nanos duration to record. Negative durations are recorded as zero
+	 */
+	public void record(long nanos) {
+		nanos = Math.max(0, nanos);
+		buckets[bucketIndex(nanos)].increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	@Override
+	public long getCount() {
+		return snapshot().getCount();
+	}
+
+	@Override
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	@Override
+	public double getAverageNanos() {
+		return snapshot().getAverageNanos();
+	}
+
+	@Override
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	@Override
+	public long getPercentileNanos(double percentile) {
+		return snapshot().getPercentileNanos(percentile);
+	}
+
+	/**
+	 * The snapshot is not atomic: samples recorded while it's taken may be partially included
+	 */
+	public AtomicLatencyHistogramSnapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		return new Snapshot(counts, count, totalNanos.sum(), maxNanos.get());
+	}
+
+	private static final class Snapshot implements AtomicLatencyHistogramSnapshot {
+
+		private final long[] counts;
+		private final long count;
+		private final long totalNanos;
+		private final long maxNanos;
+
+		private Snapshot(long[] counts, long count, long totalNanos, long maxNanos) {
+			this.counts = counts;
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+		}
+
+		@Override
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		@Override
+		public double getAverageNanos() {
+			return count == 0 ? 0 : (double) totalNanos / (double) count;
+		}
+
+		@Override
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		@Override
+		public long getPercentileNanos(double percentile) {
+			if (percentile < 0 || percentile > 100) {
+				throw new IllegalArgumentException("Percentile must be between 0 and 100, not " + percentile);
+			}
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100d * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(bucketUpperBound(i), maxNanos);
+				}
+			}
+			return maxNanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s[count='%d',average='%.0f',p50='%d',p99='%d',max='%d']", getClass().getSimpleName(),
+					count, getAverageNanos(), getPercentileNanos(50), getPercentileNanos(99), maxNanos);
+		}
+	}
+}
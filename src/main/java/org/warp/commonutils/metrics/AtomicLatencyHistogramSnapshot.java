@@ -0,0 +1,19 @@
+package org.warp.commonutils.metrics;
+
+public interface AtomicLatencyHistogramSnapshot {
+
+	long getCount();
+
+	long getTotalNanos();
+
+	double getAverageNanos();
+
+	long getMaxNanos();
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return an upper bound of the value below which the specified percentage of the samples fall, at most 25%
+	 * higher than the exact value
+	 */
+	long getPercentileNanos(double percentile);
+}
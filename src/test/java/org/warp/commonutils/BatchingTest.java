@@ -0,0 +1,484 @@
+package org.warp.commonutils;
+
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongLists;
+import it.unimi.dsi.fastutil.objects.ObjectList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.warp.commonutils.batch.BatchFlushPolicy;
+import org.warp.commonutils.batch.Batching;
+import org.warp.commonutils.batch.BatchingScheduler;
+import org.warp.commonutils.batch.BackpressureStrategy;
+import org.warp.commonutils.batch.ColumnarKVBatching;
+import org.warp.commonutils.batch.Int2ObjectColumnarBatching;
+import org.warp.commonutils.batch.Long2ObjectColumnarBatching;
+
+public class BatchingTest {
+
+	private static final int ITEMS = 10000;
+
+	@Test
+	public void testManyBatchersOnSharedScheduler() throws Exception {
+		try (var scheduler = new BatchingScheduler(1)) {
+			List<RecordingBatching> batchers = new ArrayList<>();
+			for (int i = 0; i < 50; i++) {
+				batchers.add(new RecordingBatching(BatchFlushPolicy.maxItems(100), scheduler));
+			}
+			List<CompletableFuture<Void>> futures = new ArrayList<>();
+			for (int i = 0; i < ITEMS; i++) {
+				RecordingBatching batcher = batchers.get(i % batchers.size());
+				if (i % 2 == 0) {
+					batcher.offer(i);
+				} else {
+					futures.add(batcher.offerAsync(i));
+				}
+			}
+			CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+			int sent = 0;
+			for (RecordingBatching batcher : batchers) {
+				batcher.close();
+				sent += batcher.sentItems();
+				Assertions.assertTrue(batcher.maxBatchSize <= 100);
+			}
+			Assertions.assertEquals(ITEMS, sent);
+		}
+	}
+
+	@Test
+	public void testCloseSendsPendingItems() {
+		// The policy never flushes by itself, so only close() can send the items
+		var batcher = new RecordingBatching(status -> false, BatchingScheduler.shared());
+		for (int i = 0; i < ITEMS; i++) {
+			batcher.offer(i);
+		}
+		batcher.close();
+		Assertions.assertEquals(ITEMS, batcher.sentItems());
+		Assertions.assertThrows(RejectedExecutionException.class, () -> batcher.offer(0));
+	}
+
+	@Test
+	public void testOfferConcurrentlyWithClose() throws Exception {
+		try (var scheduler = new BatchingScheduler(1)) {
+			for (int round = 0; round < 20; round++) {
+				var batcher = new RecordingBatching(BatchFlushPolicy.maxItems(100), scheduler);
+				var accepted = new AtomicInteger();
+				var futures = new ConcurrentLinkedQueue<CompletableFuture<Void>>();
+				var start = new CountDownLatch(1);
+				List<Thread> producers = new ArrayList<>();
+				for (int p = 0; p < 4; p++) {
+					var producer = new Thread(() -> {
+						try {
+							start.await();
+							for (int i = 0; ; i++) {
+								if (i % 2 == 0) {
+									batcher.offer(i);
+									accepted.incrementAndGet();
+								} else {
+									var future = batcher.offerAsync(i);
+									futures.add(future);
+									if (future.isCompletedExceptionally()) {
+										break;
+									}
+									accepted.incrementAndGet();
+								}
+							}
+						} catch (RejectedExecutionException ex) {
+							// Closed
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+					});
+					producer.start();
+					producers.add(producer);
+				}
+				start.countDown();
+				Thread.sleep(5);
+				batcher.close();
+				for (Thread producer : producers) {
+					producer.join();
+				}
+				// Every accepted item has been sent by the final drain, and every tracked item has completed
+				Assertions.assertEquals(accepted.get(), batcher.sentItems());
+				for (CompletableFuture<Void> future : futures) {
+					Assertions.assertTrue(future.isDone());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testUnreachableBatcherIsUnregistered() throws Exception {
+		var executor = new ScheduledThreadPoolExecutor(1);
+		executor.setRemoveOnCancelPolicy(true);
+		try (var scheduler = new BatchingScheduler(executor)) {
+			var batcher = new RecordingBatching(BatchFlushPolicy.maxItems(100), scheduler);
+			batcher.offer(0);
+			Assertions.assertFalse(executor.getQueue().isEmpty());
+			batcher = null;
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (!executor.getQueue().isEmpty() && System.nanoTime() < deadline) {
+				System.gc();
+				Thread.sleep(10);
+			}
+			Assertions.assertTrue(executor.getQueue().isEmpty());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testSharedSchedulerCantBeClosed() {
+		Assertions.assertThrows(UnsupportedOperationException.class, () -> BatchingScheduler.shared().close());
+	}
+
+	@Test
+	public void testOfferAsyncFailures() throws Exception {
+		try (var scheduler = new BatchingScheduler(1)) {
+			List<Throwable> untrackedFailures = new ArrayList<>();
+			var batcher = new RecordingBatching(BatchFlushPolicy.maxItems(1), scheduler) {
+				@Override
+				protected synchronized void executeBatch(Collection<Integer> actions) {
+					if (actions.contains(-1)) {
+						throw new IllegalStateException("Failed batch");
+					}
+					super.executeBatch(actions);
+				}
+
+				@Override
+				protected void onUntrackedFailure(Throwable ex) {
+					synchronized (untrackedFailures) {
+						untrackedFailures.add(ex);
+					}
+				}
+			};
+			var failed = batcher.offerAsync(-1);
+			// One item per batch: the failure of one batch fails the whole collection
+			var partiallyFailed = batcher.offerAsync(List.of(1, -1, 2));
+			var sent = batcher.offerAsync(List.of(3, 4));
+			batcher.offer(-1);
+			sent.get(10, TimeUnit.SECONDS);
+			var ex = Assertions.assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+			Assertions.assertInstanceOf(IllegalStateException.class, ex.getCause());
+			ex = Assertions.assertThrows(ExecutionException.class, () -> partiallyFailed.get(10, TimeUnit.SECONDS));
+			Assertions.assertInstanceOf(IllegalStateException.class, ex.getCause());
+			batcher.close();
+			Assertions.assertEquals(4, batcher.sentItems());
+			// Only the failure of the untracked item reaches the handler
+			synchronized (untrackedFailures) {
+				Assertions.assertEquals(1, untrackedFailures.size());
+				Assertions.assertInstanceOf(IllegalStateException.class, untrackedFailures.get(0));
+			}
+		}
+	}
+
+	@Test
+	public void testOfferAsyncCollectionAcrossBatches() throws Exception {
+		try (var scheduler = new BatchingScheduler(1)) {
+			var batcher = new RecordingBatching(BatchFlushPolicy.maxItems(2), scheduler);
+			var future = batcher.offerAsync(List.of(0, 1, 2, 3, 4));
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (batcher.sentItems() < 4 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(100);
+			// The last item waits for another one, so the collection isn't sent yet
+			Assertions.assertEquals(4, batcher.sentItems());
+			Assertions.assertFalse(future.isDone());
+			batcher.close();
+			Assertions.assertTrue(future.isDone());
+			Assertions.assertFalse(future.isCompletedExceptionally());
+			Assertions.assertEquals(5, batcher.sentItems());
+		}
+	}
+
+	@Test
+	public void testColumnarBatchingOrder() {
+		List<Long> keys = new ArrayList<>();
+		List<byte[]> values = new ArrayList<>();
+		var batcher = new Long2ObjectColumnarBatching<byte[]>(1000, BatchFlushPolicy.maxItems(64)) {
+			@Override
+			protected void executeBatch(LongList batchKeys, ObjectList<byte[]> batchValues) {
+				Assertions.assertEquals(batchKeys.size(), batchValues.size());
+				for (int i = 0; i < batchKeys.size(); i++) {
+					keys.add(batchKeys.getLong(i));
+					values.add(batchValues.get(i));
+				}
+			}
+
+			@Override
+			protected double ping() {
+				return 1;
+			}
+		};
+		for (int i = 0; i < ITEMS; i += 2) {
+			batcher.offer(i, new byte[] {(byte) i});
+			batcher.offer(new long[] {i + 1}, new byte[][] {{(byte) (i + 1)}});
+		}
+		batcher.close();
+		Assertions.assertEquals(ITEMS, keys.size());
+		for (int i = 0; i < ITEMS; i++) {
+			Assertions.assertEquals(i, keys.get(i));
+			Assertions.assertEquals((byte) i, values.get(i)[0]);
+		}
+	}
+
+	@Test
+	public void testColumnarBatchingKeepsRemainderPending() throws Exception {
+		try (var scheduler = new BatchingScheduler(1)) {
+			List<Integer> batchSizes = new ArrayList<>();
+			var batcher = new Int2ObjectColumnarBatching<String>(1000, BatchFlushPolicy.maxItems(64), 0, BackpressureStrategy.BLOCK, scheduler) {
+				@Override
+				protected void executeBatch(IntList batchKeys, ObjectList<String> batchValues) {
+					synchronized (batchSizes) {
+						batchSizes.add(batchKeys.size());
+					}
+				}
+
+				@Override
+				protected double ping() {
+					return 1;
+				}
+			};
+			int[] keys = new int[100];
+			String[] values = new String[100];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = i;
+				values[i] = Integer.toString(i);
+			}
+			batcher.offer(keys, values);
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (batcher.getPendingItems() > 36 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(100);
+			// The remainder is below maxItems, so it waits for more entries
+			Assertions.assertEquals(36, batcher.getPendingItems());
+			batcher.close();
+			synchronized (batchSizes) {
+				Assertions.assertEquals(List.of(64, 36), batchSizes);
+			}
+		}
+	}
+
+	@Test
+	public void testColumnarOfferAsync() throws Exception {
+		try (var scheduler = new BatchingScheduler(1)) {
+			var batcher = new ColumnarKVBatching<String, Integer>(1000, BatchFlushPolicy.maxItems(2), 0, BackpressureStrategy.BLOCK, scheduler) {
+				@Override
+				protected void executeBatch(ObjectList<String> batchKeys, ObjectList<Integer> batchValues) {
+					if (batchKeys.contains("fail")) {
+						throw new IllegalStateException("Failed batch");
+					}
+				}
+
+				@Override
+				protected double ping() {
+					return 1;
+				}
+			};
+			var sent = batcher.offerAsync(new String[] {"a", "b"}, new Integer[] {1, 2});
+			var failed = batcher.offerAsync("fail", 3);
+			batcher.offer("c", 4);
+			sent.get(10, TimeUnit.SECONDS);
+			var ex = Assertions.assertThrows(ExecutionException.class, () -> failed.get(10, TimeUnit.SECONDS));
+			Assertions.assertInstanceOf(IllegalStateException.class, ex.getCause());
+			batcher.close();
+			Assertions.assertTrue(batcher.offerAsync("d", 5).isCompletedExceptionally());
+		}
+	}
+
+	@Test
+	public void testColumnarBackpressure() throws Exception {
+		try (var scheduler = new BatchingScheduler(1)) {
+			var gate = new CountDownLatch(1);
+			LongList sent = LongLists.synchronize(new LongArrayList());
+			var batcher = new Long2ObjectColumnarBatching<String>(1000, BatchFlushPolicy.maxItems(1), 2, BackpressureStrategy.ASYNC, scheduler) {
+				@Override
+				protected void executeBatch(LongList batchKeys, ObjectList<String> batchValues) {
+					try {
+						gate.await();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					sent.addAll(batchKeys);
+				}
+
+				@Override
+				protected double ping() {
+					return 1;
+				}
+			};
+			long[] keys = {0, 1};
+			String[] values = {"0", "1"};
+			batcher.offer(keys, values);
+			// The deferred arrays are copied, so the caller can reuse them
+			keys[0] = 2;
+			keys[1] = 3;
+			var deferred = batcher.enqueue(keys, values);
+			Assertions.assertFalse(deferred.isDone());
+			Assertions.assertEquals(2, batcher.getPendingItems());
+			Assertions.assertEquals(2, batcher.getDeferredItems());
+			keys[0] = 4;
+			Assertions.assertTrue(batcher.enqueue(4, "4").isCompletedExceptionally());
+			gate.countDown();
+			deferred.get(10, TimeUnit.SECONDS);
+			batcher.close();
+			Assertions.assertEquals(LongArrayList.wrap(new long[] {0, 1, 2, 3}), sent);
+		}
+	}
+
+	@Test
+	public void testBlockBackpressure() throws Exception {
+		try (var scheduler = new BatchingScheduler(1)) {
+			var batcher = new GatedBatching(2, BackpressureStrategy.BLOCK, scheduler);
+			batcher.offer(0);
+			batcher.offer(1);
+			Assertions.assertEquals(2, batcher.getPendingItems());
+			var producer = CompletableFuture.runAsync(() -> batcher.offer(2));
+			Thread.sleep(100);
+			Assertions.assertFalse(producer.isDone());
+			batcher.open();
+			producer.get(10, TimeUnit.SECONDS);
+			batcher.close();
+			Assertions.assertEquals(List.of(0, 1, 2), batcher.sent());
+			Assertions.assertEquals(0, batcher.getPendingItems());
+		}
+	}
+
+	@Test
+	public void testFailFastBackpressure() {
+		try (var scheduler = new BatchingScheduler(1)) {
+			var batcher = new GatedBatching(2, BackpressureStrategy.FAIL_FAST, scheduler);
+			batcher.offer(0);
+			batcher.offer(1);
+			Assertions.assertThrows(RejectedExecutionException.class, () -> batcher.offer(2));
+			var enqueued = batcher.enqueue(3);
+			Assertions.assertTrue(enqueued.isCompletedExceptionally());
+			Assertions.assertTrue(batcher.offerAsync(4).isCompletedExceptionally());
+			Assertions.assertEquals(2, batcher.getPendingItems());
+			batcher.open();
+			batcher.close();
+			Assertions.assertEquals(List.of(0, 1), batcher.sent());
+		}
+	}
+
+	@Test
+	public void testAsyncBackpressure() throws Exception {
+		try (var scheduler = new BatchingScheduler(1)) {
+			var batcher = new GatedBatching(2, BackpressureStrategy.ASYNC, scheduler);
+			batcher.offer(0);
+			Assertions.assertTrue(batcher.enqueue(1).isDone());
+			var deferred = batcher.enqueue(2);
+			batcher.offer(3);
+			Assertions.assertFalse(deferred.isDone());
+			Assertions.assertEquals(2, batcher.getPendingItems());
+			Assertions.assertEquals(2, batcher.getDeferredItems());
+			// The deferred items are bounded like the pending ones
+			Assertions.assertTrue(batcher.enqueue(4).isCompletedExceptionally());
+			Assertions.assertThrows(RejectedExecutionException.class, () -> batcher.offer(5));
+			batcher.open();
+			deferred.get(10, TimeUnit.SECONDS);
+			batcher.close();
+			Assertions.assertEquals(0, batcher.getDeferredItems());
+			Assertions.assertEquals(List.of(0, 1, 2, 3), batcher.sent());
+		}
+	}
+
+	/**
+	 * Sends one item per batch, and holds the first batch until {@link #open()} is called
+	 */
+	private static class GatedBatching extends Batching<Integer> {
+
+		private final CountDownLatch gate = new CountDownLatch(1);
+		private final List<Integer> sent = new ArrayList<>();
+
+		public GatedBatching(int maxPendingItems, BackpressureStrategy backpressureStrategy, BatchingScheduler scheduler) {
+			super(1000, BatchFlushPolicy.maxItems(1), maxPendingItems, backpressureStrategy, scheduler);
+		}
+
+		public void open() {
+			gate.countDown();
+		}
+
+		@Override
+		protected void executeBatch(Collection<Integer> actions) {
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			synchronized (sent) {
+				sent.addAll(actions);
+			}
+		}
+
+		@Override
+		protected void executeDirect(Integer action) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected void executeDirect(Collection<Integer> action) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected double ping() {
+			return 1;
+		}
+
+		public List<Integer> sent() {
+			synchronized (sent) {
+				return new ArrayList<>(sent);
+			}
+		}
+	}
+
+	private static class RecordingBatching extends Batching<Integer> {
+
+		private final List<Integer> sent = new ArrayList<>();
+		private int maxBatchSize;
+
+		public RecordingBatching(BatchFlushPolicy<Integer> flushPolicy, BatchingScheduler scheduler) {
+			super(1000, flushPolicy, 0, BackpressureStrategy.BLOCK, scheduler);
+		}
+
+		@Override
+		protected synchronized void executeBatch(Collection<Integer> actions) {
+			maxBatchSize = Math.max(maxBatchSize, actions.size());
+			sent.addAll(actions);
+		}
+
+		@Override
+		protected void executeDirect(Integer action) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected void executeDirect(Collection<Integer> action) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		protected double ping() {
+			return 1;
+		}
+
+		public synchronized int sentItems() {
+			return sent.size();
+		}
+	}
+}
@@ -1,12 +1,34 @@
 package org.warp.commonutils;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.opentest4j.AssertionFailedError;
+import org.warp.commonutils.concurrency.executor.BlockingOnFullQueueExecutorServiceDecorator;
 import org.warp.commonutils.concurrency.executor.BoundedExecutorService;
+import org.warp.commonutils.concurrency.executor.GradientConcurrencyLimit;
+import org.warp.commonutils.concurrency.executor.LockFreeBoundedExecutorServiceDecorator;
+import org.warp.commonutils.concurrency.executor.PriorityBoundedExecutorService;
+import org.warp.commonutils.concurrency.executor.VirtualThreadSupport;
 import org.warp.commonutils.type.ShortNamedThreadFactory;
 
 public class BoundedQueueTest {
@@ -47,4 +69,545 @@ public class BoundedQueueTest {
 
 		Assertions.assertNull(failedError.get());
 	}
+
+	@Test
+	public void testLockFreeBoundedQueue() throws InterruptedException {
+		int maxQueueSize = 2;
+		AtomicInteger maxObservedQueueSize = new AtomicInteger();
+		AtomicInteger executed = new AtomicInteger();
+		var executor = (LockFreeBoundedExecutorServiceDecorator) BoundedExecutorService.createLockFree(maxQueueSize,
+				1,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				Duration.ofDays(1),
+				(isQueueFull, currentQueueSize) -> {}
+		);
+
+		for (int i = 0; i < 10000; i++) {
+			executor.execute(executed::incrementAndGet);
+			maxObservedQueueSize.accumulateAndGet(executor.getQueuedTasks(), Math::max);
+		}
+
+		executor.shutdown();
+		Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		Assertions.assertEquals(10000, executed.get());
+		Assertions.assertTrue(maxObservedQueueSize.get() <= maxQueueSize);
+		Assertions.assertEquals(0, executor.getQueuedTasks());
+	}
+
+	@Test
+	public void testLockFreeBoundedQueueFinalStatus() throws InterruptedException {
+		int maxQueueSize = 2;
+		AtomicReference<Boolean> lastReportedFull = new AtomicReference<>();
+		var executor = BoundedExecutorService.createLockFree(maxQueueSize,
+				1,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				Duration.ofDays(1),
+				(isQueueFull, currentQueueSize) -> {
+					lastReportedFull.set(isQueueFull);
+					// A slow callback makes the state changes happen while reporting
+					LockSupport.parkNanos(50_000L);
+				}
+		);
+
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < 4; p++) {
+			var producer = new Thread(() -> {
+				for (int i = 0; i < 2000; i++) {
+					executor.execute(() -> {});
+				}
+			});
+			producer.start();
+			producers.add(producer);
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		executor.shutdown();
+		Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+		// The queue stopped being full after its last full report, so that change must have been reported
+		Assertions.assertEquals(Boolean.FALSE, lastReportedFull.get());
+	}
+
+	@Test
+	public void testPriorityBoundedQueueFinalStatus() throws Exception {
+		AtomicReference<Boolean> lastReportedFull = new AtomicReference<>();
+		var executor = BoundedExecutorService.createPriority(new int[] {1},
+				1,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				Duration.ofSeconds(1),
+				Duration.ofDays(1),
+				(isQueueFull, currentQueueSize) -> lastReportedFull.set(isQueueFull)
+		);
+		// The only task fills its lane until it starts, and it's reported before running
+		executor.submit(() -> {}).get(10, TimeUnit.SECONDS);
+
+		// The executor is idle, so its last report must say that no lane is full
+		Assertions.assertEquals(Boolean.FALSE, lastReportedFull.get());
+		executor.shutdown();
+		Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testInvokeAllAndAny() throws InterruptedException, ExecutionException {
+		var executors = List.of(BoundedExecutorService.create(2,
+				2,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				null
+		), BoundedExecutorService.createLockFree(2,
+				2,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				Duration.ofDays(1),
+				null
+		));
+		for (BoundedExecutorService executor : executors) {
+			// More tasks than the queue can hold: they are submitted as slots become free
+			List<Callable<Integer>> tasks = new ArrayList<>();
+			for (int i = 0; i < 100; i++) {
+				int value = i;
+				tasks.add(() -> value);
+			}
+			List<Future<Integer>> futures = executor.invokeAll(tasks);
+			for (int i = 0; i < 100; i++) {
+				Assertions.assertEquals(i, futures.get(i).get());
+			}
+
+			CountDownLatch loserStarted = new CountDownLatch(1);
+			CountDownLatch loserInterrupted = new CountDownLatch(1);
+			Integer result = executor.invokeAny(List.of(() -> {
+				loserStarted.countDown();
+				try {
+					Thread.sleep(60_000);
+				} catch (InterruptedException ex) {
+					loserInterrupted.countDown();
+				}
+				return -1;
+			}, () -> {
+				loserStarted.await();
+				return 42;
+			}));
+			Assertions.assertEquals(42, result);
+			Assertions.assertTrue(loserInterrupted.await(10, TimeUnit.SECONDS));
+
+			executor.shutdown();
+			Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testTimedInvokeAllAndAny() throws Exception {
+		var executors = List.of(BoundedExecutorService.create(1,
+				1,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				null
+		), BoundedExecutorService.createLockFree(1,
+				1,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				Duration.ofDays(1),
+				null
+		));
+		for (BoundedExecutorService executor : executors) {
+			// A running task and a queued one: the queue stays full, and the maximum timeout is much longer than the
+			// timeouts of the invocations
+			CountDownLatch release = new CountDownLatch(1);
+			CountDownLatch blockerStarted = new CountDownLatch(1);
+			executor.execute(() -> {
+				blockerStarted.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			Assertions.assertTrue(blockerStarted.await(10, TimeUnit.SECONDS));
+			executor.execute(() -> {});
+
+			long start = System.nanoTime();
+			List<Callable<Integer>> blockedTasks = List.of(() -> 1, () -> 2, () -> 3);
+			List<Future<Integer>> futures = executor.invokeAll(blockedTasks, 100, TimeUnit.MILLISECONDS);
+			Assertions.assertEquals(3, futures.size());
+			for (Future<Integer> future : futures) {
+				Assertions.assertTrue(future.isCancelled());
+			}
+			Assertions.assertThrows(TimeoutException.class,
+					() -> executor.invokeAny(blockedTasks, 100, TimeUnit.MILLISECONDS)
+			);
+			// Both the invocations gave up after their own timeout
+			Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+
+			release.countDown();
+			List<Callable<Integer>> tasks = List.of(() -> 1, () -> 2);
+			futures = executor.invokeAll(tasks, 10, TimeUnit.SECONDS);
+			Assertions.assertEquals(1, futures.get(0).get());
+			Assertions.assertEquals(2, futures.get(1).get());
+			int result = executor.invokeAny(tasks, 10, TimeUnit.SECONDS);
+			Assertions.assertTrue(result == 1 || result == 2);
+
+			executor.shutdown();
+			Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testQueuedTasksExpire() throws InterruptedException {
+		var executor = (BlockingOnFullQueueExecutorServiceDecorator) BoundedExecutorService.create(10,
+				1,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				Duration.ofMillis(50),
+				null
+		);
+		CountDownLatch blockerStarted = new CountDownLatch(1);
+		executor.execute(() -> {
+			blockerStarted.countDown();
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		});
+		blockerStarted.await();
+		AtomicBoolean ran = new AtomicBoolean();
+		executor.execute(() -> ran.set(true));
+		Future<Boolean> future = executor.submit(() -> ran.getAndSet(true));
+		var ex = Assertions.assertThrows(ExecutionException.class, future::get);
+		Assertions.assertInstanceOf(RejectedExecutionException.class, ex.getCause());
+		Assertions.assertFalse(ran.get());
+		Assertions.assertEquals(2, executor.getExpiredTasks());
+
+		// A task that doesn't wait in the queue is run normally
+		Assertions.assertDoesNotThrow(() -> executor.submit(() -> true).get());
+
+		executor.shutdown();
+		Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testExpiredTasksCompleteTheirFutures() throws Exception {
+		var executor = BoundedExecutorService.create(10,
+				1,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				Duration.ofMillis(50),
+				null
+		);
+		CountDownLatch blockerStarted = new CountDownLatch(1);
+		Runnable blocker = () -> {
+			blockerStarted.countDown();
+			try {
+				Thread.sleep(200);
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		};
+		executor.execute(blocker);
+		blockerStarted.await();
+		// A future passed to execute is cancelled when it expires
+		var futureTask = new FutureTask<>(() -> true);
+		executor.execute(futureTask);
+		// A CompletableFuture can't be failed by the executor, so its task is run anyway
+		var asyncRun = CompletableFuture.runAsync(() -> {}, executor);
+		Assertions.assertThrows(CancellationException.class, () -> futureTask.get(10, TimeUnit.SECONDS));
+		Assertions.assertDoesNotThrow(() -> asyncRun.get(10, TimeUnit.SECONDS));
+
+		// The task of invokeAny expires behind the blocker: invokeAny fails instead of waiting forever
+		executor.execute(blocker);
+		List<Callable<Boolean>> tasks = List.of(() -> true);
+		var invokeAny = CompletableFuture.supplyAsync(() -> {
+			try {
+				return executor.invokeAny(tasks);
+			} catch (InterruptedException | ExecutionException ex) {
+				throw new CompletionException(ex);
+			}
+		});
+		var ex = Assertions.assertThrows(ExecutionException.class, () -> invokeAny.get(10, TimeUnit.SECONDS));
+		Assertions.assertInstanceOf(ExecutionException.class, ex.getCause());
+		Assertions.assertInstanceOf(CancellationException.class, ex.getCause().getCause());
+
+		executor.shutdown();
+		Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testPriorityLanes() throws InterruptedException {
+		testPriorityLanes(Duration.ofDays(1), List.of("high-0", "high-1", "low-0", "low-1"));
+		// The low priority tasks wait much longer than the aging interval, so they run first
+		testPriorityLanes(Duration.ofMillis(1), List.of("low-0", "low-1", "high-0", "high-1"));
+	}
+
+	private void testPriorityLanes(Duration agingInterval, List<String> expectedOrder) throws InterruptedException {
+		PriorityBoundedExecutorService executor = BoundedExecutorService.createPriority(new int[] {2, 2},
+				1,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				agingInterval,
+				Duration.ofMillis(50),
+				null
+		);
+		CountDownLatch blockerStarted = new CountDownLatch(1);
+		CountDownLatch unblock = new CountDownLatch(1);
+		executor.execute(() -> {
+			blockerStarted.countDown();
+			try {
+				unblock.await();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		});
+		blockerStarted.await();
+		var order = new ConcurrentLinkedQueue<String>();
+		executor.execute(1, () -> order.add("low-0"));
+		executor.execute(1, () -> order.add("low-1"));
+		// The lane is full
+		Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute(1, () -> order.add("low-2")));
+		Thread.sleep(20);
+		executor.execute(0, () -> order.add("high-0"));
+		executor.submit(0, () -> order.add("high-1"));
+		unblock.countDown();
+
+		executor.shutdown();
+		Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assertions.assertEquals(expectedOrder, List.copyOf(order));
+	}
+
+	@Test
+	public void testVirtualThreadsConcurrencyLimit() throws InterruptedException {
+		var maxRunning = new AtomicInteger();
+		var executor = BoundedExecutorService.createVirtual(50, "test-virtual", Duration.ofDays(1), (full, running) -> {
+			maxRunning.accumulateAndGet(running, Math::max);
+		});
+		var running = new AtomicInteger();
+		var maxObserved = new AtomicInteger();
+		var completed = new AtomicInteger();
+		for (int i = 0; i < 500; i++) {
+			executor.execute(() -> {
+				maxObserved.accumulateAndGet(running.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				} finally {
+					running.decrementAndGet();
+				}
+				completed.incrementAndGet();
+			});
+		}
+		executor.shutdown();
+		Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assertions.assertEquals(500, completed.get());
+		Assertions.assertTrue(maxObserved.get() <= 50);
+		Assertions.assertTrue(maxRunning.get() <= 50);
+		if (VirtualThreadSupport.isAvailable()) {
+			Assertions.assertTrue(VirtualThreadSupport.virtualThreadFactory("test").newThread(() -> {}).getName().startsWith("test-"));
+		}
+	}
+
+	@Test
+	public void testWorkStealingBoundedQueue() throws InterruptedException {
+		var maxQueueSize = 100;
+		var maxReportedSize = new AtomicInteger();
+		var executor = BoundedExecutorService.createWorkStealing(maxQueueSize, 4, "test-ws", Duration.ofDays(1),
+				(full, size) -> maxReportedSize.accumulateAndGet(size, Math::max)
+		);
+		var completed = new AtomicInteger();
+		var workerNames = new ConcurrentLinkedQueue<String>();
+		for (int i = 0; i < 10_000; i++) {
+			executor.execute(() -> {
+				if (completed.incrementAndGet() % 1000 == 0) {
+					workerNames.add(Thread.currentThread().getName());
+				}
+			});
+		}
+		executor.shutdown();
+		Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assertions.assertEquals(10_000, completed.get());
+		Assertions.assertTrue(maxReportedSize.get() <= maxQueueSize);
+		Assertions.assertTrue(workerNames.stream().allMatch(name -> name.startsWith("test-ws-")));
+	}
+
+	@Test
+	public void testAdaptiveLimit() throws InterruptedException {
+		// Constant latency and a saturated queue: the limit grows up to the maximum
+		var executor = BoundedExecutorService.createAdaptive(2, 64, 4, 0L, TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"), Duration.ofDays(1), null);
+		Assertions.assertEquals(2, executor.getTaskLimit());
+		for (int i = 0; i < 2000; i++) {
+			executor.execute(() -> {});
+		}
+		executor.shutdown();
+		Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assertions.assertTrue(executor.getTaskLimit() > 2);
+
+		// Latency much higher than the long-term average: the limit shrinks down to the minimum
+		var limit = new GradientConcurrencyLimit(64, 4, 128);
+		var decorator = new BlockingOnFullQueueExecutorServiceDecorator(Executors.newSingleThreadExecutor(),
+				limit,
+				Duration.ofDays(1),
+				Duration.ZERO,
+				true,
+				null,
+				null
+		);
+		var latency = new AtomicInteger(1);
+		for (int i = 0; i < 100; i++) {
+			int sleepMillis = latency.get();
+			decorator.submit(() -> {
+				Thread.sleep(sleepMillis);
+				return null;
+			});
+			if (i == 10) {
+				latency.set(10);
+			}
+		}
+		decorator.shutdown();
+		Assertions.assertTrue(decorator.awaitTermination(60, TimeUnit.SECONDS));
+		Assertions.assertTrue(decorator.getTaskLimit() < 64, () -> "limit: " + decorator.getTaskLimit());
+	}
+
+	@Test
+	public void testMetrics() throws InterruptedException, ExecutionException {
+		// Admission timeout without expiration of the queued tasks
+		var executor = new BlockingOnFullQueueExecutorServiceDecorator(Executors.newSingleThreadExecutor(),
+				1,
+				Duration.ofMillis(50),
+				() -> 0,
+				null
+		);
+		CountDownLatch blockerStarted = new CountDownLatch(1);
+		CountDownLatch unblock = new CountDownLatch(1);
+		executor.execute(() -> {
+			blockerStarted.countDown();
+			try {
+				unblock.await();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+		});
+		blockerStarted.await();
+		Future<?> queued = executor.submit(() -> {});
+		// The queue is full
+		Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+		Thread.sleep(20);
+		unblock.countDown();
+		queued.get();
+		executor.submit(() -> {
+			Thread.sleep(10);
+			return null;
+		}).get();
+
+		var metrics = executor.getMetrics();
+		Assertions.assertEquals(3, metrics.getQueueWaitTime().getCount());
+		Assertions.assertTrue(metrics.getQueueWaitTime().getMaxNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+		Assertions.assertTrue(metrics.getRunTime().getPercentileNanos(100) >= TimeUnit.MILLISECONDS.toNanos(10));
+		Assertions.assertEquals(1, metrics.getRejections().getTotalCount());
+		Assertions.assertEquals(1, metrics.getAdmissionTimeouts().getTotalCount());
+		Assertions.assertEquals(0, metrics.getExpiredTasks().getTotalCount());
+
+		executor.shutdown();
+		Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assertions.assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {}));
+		Assertions.assertEquals(2, executor.getMetrics().getRejections().getTotalCount());
+	}
+
+	@Test
+	public void testSubmitAsyncNeverBlocks() throws Exception {
+		var executor = new BlockingOnFullQueueExecutorServiceDecorator(Executors.newSingleThreadExecutor(),
+				1,
+				10,
+				Duration.ofDays(1),
+				Duration.ZERO,
+				true,
+				null,
+				null
+		);
+		CountDownLatch unblock = new CountDownLatch(1);
+		var blocker = executor.submitAsync(() -> {
+			unblock.await();
+			return -1;
+		});
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			int value = i;
+			futures.add(executor.submitAsync(() -> value));
+		}
+		Assertions.assertEquals(10, executor.getPendingTasks());
+		// The list of pending tasks is full
+		var rejected = executor.submitAsync(() -> 0);
+		var ex = Assertions.assertThrows(ExecutionException.class, rejected::get);
+		Assertions.assertInstanceOf(RejectedExecutionException.class, ex.getCause());
+		// Cancelled while pending: never run
+		Assertions.assertTrue(futures.get(5).cancel(false));
+
+		unblock.countDown();
+		Assertions.assertEquals(-1, blocker.get(10, TimeUnit.SECONDS));
+		for (int i = 0; i < 10; i++) {
+			if (i != 5) {
+				Assertions.assertEquals(i, futures.get(i).get(10, TimeUnit.SECONDS));
+			}
+		}
+		Assertions.assertEquals(0, executor.getPendingTasks());
+
+		executor.shutdown();
+		Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assertions.assertThrows(ExecutionException.class, () -> executor.submitAsync(() -> 0).get());
+	}
+
+	@Test
+	public void testSubmitAsyncRejectsWhenFull() throws Exception {
+		List<BoundedExecutorService> executors = List.of(BoundedExecutorService.createLockFree(1,
+				1,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				Duration.ofDays(1),
+				null
+		), BoundedExecutorService.createPriority(new int[] {1},
+				1,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("test"),
+				Duration.ofSeconds(1),
+				Duration.ofDays(1),
+				null
+		));
+		for (BoundedExecutorService executor : executors) {
+			CountDownLatch started = new CountDownLatch(1);
+			CountDownLatch unblock = new CountDownLatch(1);
+			var blocker = executor.submitAsync(() -> {
+				started.countDown();
+				unblock.await();
+				return -1;
+			});
+			Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+			var queued = executor.submitAsync(() -> 1);
+			// The queue is full: rejected without waiting for the admission timeout
+			var rejected = executor.submitAsync(() -> 0);
+			var ex = Assertions.assertThrows(ExecutionException.class, () -> rejected.get(10, TimeUnit.SECONDS));
+			Assertions.assertInstanceOf(RejectedExecutionException.class, ex.getCause());
+
+			unblock.countDown();
+			Assertions.assertEquals(-1, blocker.get(10, TimeUnit.SECONDS));
+			Assertions.assertEquals(1, queued.get(10, TimeUnit.SECONDS));
+			executor.shutdown();
+			Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
 }
@@ -0,0 +1,198 @@
+package org.warp.commonutils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.warp.commonutils.batch.ParallelUtils;
+import org.warp.commonutils.concurrency.executor.BoundedExecutorService;
+import org.warp.commonutils.type.ShortNamedThreadFactory;
+
+public class ParallelUtilsTest {
+
+	private static final int ELEMENTS = 10007;
+
+	private static Consumer<BiConsumer<Integer, Integer>> range(int elements) {
+		return consumer -> {
+			for (int i = 0; i < elements; i++) {
+				consumer.accept(i, i * 2);
+			}
+		};
+	}
+
+	@Test
+	public void testParallelizeOrdered() {
+		List<Integer> results = new ArrayList<>();
+		ParallelUtils.parallelizeOrdered(range(ELEMENTS), 16, 4, 10, 8, (key, value) -> {
+			if (ThreadLocalRandom.current().nextInt(100) == 0) {
+				LockSupport.parkNanos(100_000L);
+			}
+			return key + value;
+		}, results::add);
+		Assertions.assertEquals(ELEMENTS, results.size());
+		for (int i = 0; i < ELEMENTS; i++) {
+			Assertions.assertEquals(i * 3, results.get(i));
+		}
+	}
+
+	@Test
+	public void testParallelizeOrderedFailure() {
+		Assertions.assertThrows(CompletionException.class, () -> {
+			ParallelUtils.parallelizeOrdered(range(ELEMENTS), 16, 4, 10, 8, (key, value) -> {
+				if (key == 500) {
+					throw new IllegalStateException("Expected failure");
+				}
+				return key;
+			}, result -> {});
+		});
+	}
+
+	@Test
+	public void testParallelizeOnSharedExecutor() throws InterruptedException {
+		var executor = BoundedExecutorService.create(16, 4, 0, TimeUnit.MILLISECONDS, new ShortNamedThreadFactory("ParallelUtilsTest"), (a, b) -> {});
+		try {
+			for (int call = 0; call < 100; call++) {
+				AtomicLong sum = new AtomicLong();
+				AtomicLong elements = new AtomicLong();
+				ParallelUtils.parallelize(range(1000), executor, 7, (Integer key, Integer value) -> {
+					sum.addAndGet(value);
+					elements.incrementAndGet();
+				});
+				Assertions.assertEquals(1000, elements.get());
+				Assertions.assertEquals(999 * 1000, sum.get());
+			}
+		} finally {
+			executor.shutdown();
+			Assertions.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		}
+	}
+
+	@Test
+	public void testParallelizeFailure() {
+		AtomicLong iterated = new AtomicLong();
+		AtomicLong consumed = new AtomicLong();
+		Consumer<BiConsumer<Integer, Integer>> source = consumer -> {
+			for (int i = 0; i < ELEMENTS; i++) {
+				iterated.incrementAndGet();
+				consumer.accept(i, i);
+			}
+		};
+		var exception = Assertions.assertThrows(CompletionException.class, () -> {
+			ParallelUtils.parallelize(source, 4, 4, 10, (Integer key, Integer value) -> {
+				if (key == 5) {
+					throw new IllegalStateException("Expected failure");
+				}
+				consumed.incrementAndGet();
+			});
+		});
+		Assertions.assertTrue(exception.getCause() instanceof IllegalStateException);
+		Assertions.assertEquals(0, exception.getSuppressed().length);
+		// The iteration stops soon after the failure of the first chunk, and the queued chunks are skipped
+		Assertions.assertTrue(iterated.get() < ELEMENTS / 2, "Iterated " + iterated.get() + " elements");
+		Assertions.assertTrue(consumed.get() < ELEMENTS / 2, "Consumed " + consumed.get() + " elements");
+	}
+
+	@Test
+	public void testParallelizeConcurrentFailures() {
+		// The first two chunks fail only after both have started, so both failures are reported
+		var started = new CountDownLatch(2);
+		var exception = Assertions.assertThrows(CompletionException.class, () -> {
+			ParallelUtils.parallelize(range(ELEMENTS), 4, 4, 10, (Integer key, Integer value) -> {
+				if (key == 0 || key == 10) {
+					started.countDown();
+					try {
+						Assertions.assertTrue(started.await(10, TimeUnit.SECONDS));
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					throw new IllegalStateException("Expected failure " + key);
+				}
+			});
+		});
+		Assertions.assertTrue(exception.getCause() instanceof IllegalStateException);
+		Assertions.assertEquals(1, exception.getSuppressed().length);
+		Assertions.assertTrue(exception.getSuppressed()[0] instanceof IllegalStateException);
+		Assertions.assertNotEquals(exception.getCause().getMessage(), exception.getSuppressed()[0].getMessage());
+	}
+
+	@Test
+	public void testParallelizeMap() {
+		var map = new HashMap<Integer, Integer>();
+		for (int i = 0; i < ELEMENTS; i++) {
+			map.put(i, i);
+		}
+		AtomicLong sum = new AtomicLong();
+		AtomicLong elements = new AtomicLong();
+		ParallelUtils.parallelize(map, 64, (key, value) -> {
+			sum.addAndGet(value);
+			elements.incrementAndGet();
+		});
+		Assertions.assertEquals(ELEMENTS, elements.get());
+		Assertions.assertEquals((long) ELEMENTS * (ELEMENTS - 1) / 2, sum.get());
+	}
+
+	@Test
+	public void testParallelizeSpliteratorFailure() {
+		var elements = new ArrayList<Integer>();
+		for (int i = 0; i < ELEMENTS; i++) {
+			elements.add(i);
+		}
+		var pool = new ForkJoinPool(4);
+		try {
+			AtomicBoolean failed = new AtomicBoolean();
+			AtomicInteger running = new AtomicInteger();
+			AtomicLong consumed = new AtomicLong();
+			var exception = Assertions.assertThrows(CompletionException.class, () -> {
+				ParallelUtils.parallelize(elements.spliterator(), pool, 16, element -> {
+					running.incrementAndGet();
+					try {
+						if (failed.compareAndSet(false, true)) {
+							throw new IllegalStateException("Expected failure");
+						}
+						LockSupport.parkNanos(10_000L);
+						consumed.incrementAndGet();
+					} finally {
+						running.decrementAndGet();
+					}
+				});
+			});
+			Assertions.assertTrue(exception.getCause() instanceof IllegalStateException);
+			// Every part is done when the call returns, and the parts stop after the failure
+			Assertions.assertEquals(0, running.get());
+			Assertions.assertTrue(consumed.get() < ELEMENTS / 2, "Consumed " + consumed.get() + " elements");
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testParallelizeMapFailure() {
+		var map = new HashMap<Integer, Integer>();
+		for (int i = 0; i < ELEMENTS; i++) {
+			map.put(i, i);
+		}
+		var exception = Assertions.assertThrows(CompletionException.class, () -> {
+			ParallelUtils.parallelize(map, 64, (key, value) -> {
+				if (key % 1000 == 0) {
+					throw new IllegalStateException("Expected failure");
+				}
+			});
+		});
+		Assertions.assertTrue(exception.getCause() instanceof IllegalStateException);
+		for (Throwable suppressed : exception.getSuppressed()) {
+			Assertions.assertTrue(suppressed instanceof IllegalStateException);
+		}
+	}
+}
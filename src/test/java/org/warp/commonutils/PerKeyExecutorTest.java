@@ -0,0 +1,295 @@
+package org.warp.commonutils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.warp.commonutils.concurrency.executor.BoundedExecutorService;
+import org.warp.commonutils.concurrency.executor.ConcurrencySegmentType;
+import org.warp.commonutils.concurrency.executor.PerKeyAsyncReadWriteExecutor;
+import org.warp.commonutils.concurrency.executor.PerKeyReadWriteExecutor;
+import org.warp.commonutils.concurrency.executor.PerKeySerialExecutor;
+import org.warp.commonutils.concurrency.executor.PerKeySynchronizedExecutor;
+import org.warp.commonutils.concurrency.executor.ReadWriteExecutor.LockMode;
+import org.warp.commonutils.type.ShortNamedThreadFactory;
+
+public class PerKeyExecutorTest {
+
+	private static final int THREADS = 8;
+	private static final int KEYS = 4;
+	private static final int ITERATIONS = 20000;
+
+	@Test
+	public void testReadWriteExecutorExclusion() throws InterruptedException {
+		for (ConcurrencySegmentType segmentType : ConcurrencySegmentType.values()) {
+			testReadWriteExecutorExclusion(segmentType);
+		}
+	}
+
+	private void testReadWriteExecutorExclusion(ConcurrencySegmentType segmentType) throws InterruptedException {
+		var executor = new PerKeyReadWriteExecutor<Integer>(2, segmentType);
+		int[] counters = new int[KEYS];
+		runConcurrently((i) -> {
+			int key = i % KEYS;
+			executor.execute(key, LockMode.WRITE, () -> {
+				counters[key]++;
+			});
+		});
+		executor.close();
+		for (int counter : counters) {
+			Assertions.assertEquals(THREADS * ITERATIONS / KEYS, counter);
+		}
+	}
+
+	@Test
+	public void testSynchronizedExecutorExclusion() throws InterruptedException {
+		for (ConcurrencySegmentType segmentType : ConcurrencySegmentType.values()) {
+			testSynchronizedExecutorExclusion(segmentType);
+		}
+	}
+
+	private void testSynchronizedExecutorExclusion(ConcurrencySegmentType segmentType) throws InterruptedException {
+		var executor = new PerKeySynchronizedExecutor<Integer>(2, segmentType);
+		int[] counters = new int[KEYS];
+		runConcurrently((i) -> {
+			int key = i % KEYS;
+			executor.execute(key, () -> {
+				counters[key]++;
+			});
+		});
+		executor.close();
+		for (int counter : counters) {
+			Assertions.assertEquals(THREADS * ITERATIONS / KEYS, counter);
+		}
+	}
+
+	@Test
+	public void testExecuteAll() throws InterruptedException {
+		for (ConcurrencySegmentType segmentType : ConcurrencySegmentType.values()) {
+			testExecuteAll(segmentType);
+		}
+	}
+
+	private void testExecuteAll(ConcurrencySegmentType segmentType) throws InterruptedException {
+		var executor = new PerKeyReadWriteExecutor<Integer>(4, segmentType);
+		int[] counters = new int[KEYS * 4];
+		runConcurrently((i) -> {
+			var random = ThreadLocalRandom.current();
+			List<Integer> keys = new ArrayList<>();
+			for (int k = 0; k < 3; k++) {
+				// Duplicates are allowed
+				keys.add(random.nextInt(counters.length));
+			}
+			executor.executeAll(keys, LockMode.WRITE, () -> {
+				for (Integer key : keys) {
+					counters[key]++;
+				}
+			});
+		});
+		executor.close();
+		int total = 0;
+		for (int counter : counters) {
+			total += counter;
+		}
+		Assertions.assertEquals(THREADS * ITERATIONS * 3, total);
+	}
+
+	@Test
+	public void testCloseWaitsForRunningTasks() throws InterruptedException {
+		var executor = new PerKeyReadWriteExecutor<Integer>();
+		CountDownLatch taskStarted = new CountDownLatch(1);
+		AtomicBoolean taskDone = new AtomicBoolean();
+		Thread thread = new Thread(() -> executor.execute(1, LockMode.READ, () -> {
+			taskStarted.countDown();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			taskDone.set(true);
+		}));
+		thread.start();
+		taskStarted.await();
+		executor.close();
+		Assertions.assertTrue(taskDone.get());
+		Assertions.assertThrows(IllegalStateException.class, () -> executor.execute(2, LockMode.READ, () -> {}));
+		thread.join();
+	}
+
+	@Test
+	public void testAsyncExecutorOrdering() {
+		for (ConcurrencySegmentType segmentType : ConcurrencySegmentType.values()) {
+			testAsyncExecutorOrdering(segmentType);
+		}
+	}
+
+	private void testAsyncExecutorOrdering(ConcurrencySegmentType segmentType) {
+		var executor = new PerKeyAsyncReadWriteExecutor<Integer>(2, segmentType);
+		ExecutorService completer = Executors.newFixedThreadPool(4);
+		AtomicInteger[] writers = {new AtomicInteger(), new AtomicInteger()};
+		AtomicInteger[] readers = {new AtomicInteger(), new AtomicInteger()};
+		AtomicInteger maxReaders = new AtomicInteger();
+		AtomicBoolean overlap = new AtomicBoolean();
+		List<CompletableFuture<Integer>> results = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			LockMode lockMode = i % 4 == 0 ? LockMode.WRITE : LockMode.READ;
+			int key = i % 2;
+			int value = i;
+			results.add(executor.execute(key, lockMode, () -> {
+				if (lockMode == LockMode.WRITE) {
+					if (writers[key].incrementAndGet() != 1 || readers[key].get() != 0) {
+						overlap.set(true);
+					}
+				} else {
+					maxReaders.accumulateAndGet(readers[key].incrementAndGet(), Math::max);
+					if (writers[key].get() != 0) {
+						overlap.set(true);
+					}
+				}
+				return CompletableFuture.supplyAsync(() -> {
+					if (lockMode == LockMode.WRITE) {
+						writers[key].decrementAndGet();
+					} else {
+						readers[key].decrementAndGet();
+					}
+					return value;
+				}, completer);
+			}));
+		}
+		for (int i = 0; i < results.size(); i++) {
+			Assertions.assertEquals(i, results.get(i).join());
+		}
+		executor.close();
+		completer.shutdown();
+		Assertions.assertFalse(overlap.get());
+		Assertions.assertTrue(maxReaders.get() > 1);
+	}
+
+	@Test
+	public void testSerialExecutorOrdering() {
+		for (ConcurrencySegmentType segmentType : ConcurrencySegmentType.values()) {
+			testSerialExecutorOrdering(segmentType);
+		}
+	}
+
+	private void testSerialExecutorOrdering(ConcurrencySegmentType segmentType) {
+		var shared = BoundedExecutorService.create(64,
+				4,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("serial"),
+				Duration.ofDays(1),
+				null
+		);
+		var executor = new PerKeySerialExecutor<Integer>(shared, 2, segmentType);
+		int[] lastValues = {-1, -1, -1, -1};
+		AtomicInteger[] running = new AtomicInteger[KEYS];
+		for (int i = 0; i < KEYS; i++) {
+			running[i] = new AtomicInteger();
+		}
+		AtomicInteger maxRunningKeys = new AtomicInteger();
+		AtomicInteger runningKeys = new AtomicInteger();
+		// The first tasks of two keys wait for each other, so different keys must run concurrently
+		CountDownLatch firstTasks = new CountDownLatch(2);
+		AtomicBoolean error = new AtomicBoolean();
+		List<CompletableFuture<Integer>> results = new ArrayList<>();
+		for (int i = 0; i < 4000; i++) {
+			int key = i % KEYS;
+			int value = i;
+			results.add(executor.execute(key, () -> {
+				if (running[key].incrementAndGet() != 1 || lastValues[key] >= value) {
+					error.set(true);
+				}
+				maxRunningKeys.accumulateAndGet(runningKeys.incrementAndGet(), Math::max);
+				if (value < 2) {
+					firstTasks.countDown();
+					firstTasks.await(10, TimeUnit.SECONDS);
+				}
+				lastValues[key] = value;
+				runningKeys.decrementAndGet();
+				running[key].decrementAndGet();
+				return value;
+			}));
+		}
+		for (int i = 0; i < results.size(); i++) {
+			Assertions.assertEquals(i, results.get(i).join());
+		}
+		executor.close();
+		shared.shutdown();
+		Assertions.assertFalse(error.get());
+		Assertions.assertTrue(maxRunningKeys.get() > 1);
+		Assertions.assertThrows(IllegalStateException.class, () -> executor.execute(0, () -> {}));
+	}
+
+	@Test
+	public void testSerialExecutorSaturated() {
+		List<BoundedExecutorService> sharedExecutors = List.of(BoundedExecutorService.createLockFree(2,
+				2,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("serial"),
+				Duration.ofDays(1),
+				null
+		), BoundedExecutorService.createPriority(new int[] {2},
+				2,
+				0L,
+				TimeUnit.MILLISECONDS,
+				new ShortNamedThreadFactory("serial"),
+				Duration.ofSeconds(1),
+				Duration.ofDays(1),
+				null
+		));
+		for (BoundedExecutorService shared : sharedExecutors) {
+			// Many more keys than slots of the shared queue: every burst fills it
+			var executor = new PerKeySerialExecutor<Integer>(shared);
+			int keys = 64;
+			int[] lastValues = new int[keys];
+			AtomicBoolean error = new AtomicBoolean();
+			List<CompletableFuture<Integer>> results = new ArrayList<>();
+			for (int i = 0; i < 6400; i++) {
+				int key = i % keys;
+				int value = i;
+				results.add(executor.execute(key, () -> {
+					if (value >= keys && lastValues[key] != value - keys) {
+						error.set(true);
+					}
+					lastValues[key] = value;
+					return value;
+				}));
+			}
+			// No task is failed because the shared executor was busy
+			for (int i = 0; i < results.size(); i++) {
+				Assertions.assertEquals(i, results.get(i).join());
+			}
+			executor.close();
+			shared.shutdown();
+			Assertions.assertFalse(error.get());
+		}
+	}
+
+	private static void runConcurrently(IterationBody body) throws InterruptedException {
+		ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+		for (int t = 0; t < THREADS; t++) {
+			threads.execute(() -> {
+				for (int i = 0; i < ITERATIONS; i++) {
+					body.run(i);
+				}
+			});
+		}
+		threads.shutdown();
+		Assertions.assertTrue(threads.awaitTermination(1, TimeUnit.MINUTES));
+	}
+
+	private interface IterationBody {
+		void run(int iteration);
+	}
+}
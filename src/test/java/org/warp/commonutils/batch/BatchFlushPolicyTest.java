@@ -0,0 +1,87 @@
+package org.warp.commonutils.batch;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BatchFlushPolicyTest {
+
+	private static BatchingStatus status(int pendingItems, long pendingBytes, long oldestItemAgeNanos) {
+		var status = new BatchingStatus();
+		status.pendingItems = pendingItems;
+		status.pendingBytes = pendingBytes;
+		status.oldestItemAgeNanos = oldestItemAgeNanos;
+		status.latencyMillis = 1;
+		status.singleItemTransferTimeMillis = 0.1;
+		return status;
+	}
+
+	@Test
+	public void testMaxItems() {
+		BatchFlushPolicy<Object> policy = BatchFlushPolicy.maxItems(10);
+		Assertions.assertFalse(policy.shouldFlush(status(9, 0, 0)));
+		Assertions.assertTrue(policy.shouldFlush(status(10, 0, 0)));
+		Assertions.assertEquals(10, policy.maxBatchItems());
+		Assertions.assertEquals(Long.MAX_VALUE, policy.maxBatchBytes());
+		Assertions.assertThrows(IllegalArgumentException.class, () -> BatchFlushPolicy.maxItems(0));
+	}
+
+	@Test
+	public void testMaxBytes() {
+		BatchFlushPolicy<byte[]> policy = BatchFlushPolicy.maxBytes(100, item -> item.length);
+		Assertions.assertEquals(7, policy.estimateSize(new byte[7]));
+		Assertions.assertFalse(policy.shouldFlush(status(3, 99, 0)));
+		Assertions.assertTrue(policy.shouldFlush(status(3, 100, 0)));
+		Assertions.assertEquals(100, policy.maxBatchBytes());
+		Assertions.assertEquals(Integer.MAX_VALUE, policy.maxBatchItems());
+	}
+
+	@Test
+	public void testMaxWait() {
+		long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(10);
+		BatchFlushPolicy<Object> policy = BatchFlushPolicy.maxWait(Duration.ofMillis(10));
+		Assertions.assertFalse(policy.shouldFlush(status(0, 0, 0)));
+		Assertions.assertFalse(policy.shouldFlush(status(1, 0, maxWaitNanos - 1)));
+		Assertions.assertTrue(policy.shouldFlush(status(1, 0, maxWaitNanos)));
+		Assertions.assertEquals(maxWaitNanos, policy.checkIntervalNanos(status(0, 0, 0)));
+		Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(4),
+				policy.checkIntervalNanos(status(1, 0, TimeUnit.MILLISECONDS.toNanos(6)))
+		);
+		Assertions.assertThrows(IllegalArgumentException.class, () -> BatchFlushPolicy.maxWait(Duration.ofMillis(-1)));
+	}
+
+	@Test
+	public void testMaxWaitZeroDoesNotSpin() {
+		BatchFlushPolicy<Object> policy = BatchFlushPolicy.maxWait(Duration.ZERO);
+		Assertions.assertTrue(policy.shouldFlush(status(1, 0, 0)));
+		Assertions.assertTrue(policy.checkIntervalNanos(status(0, 0, 0)) > 0);
+		Assertions.assertTrue(policy.checkIntervalNanos(status(1, 0, 1000)) > 0);
+	}
+
+	@Test
+	public void testAnyOf() {
+		BatchFlushPolicy<byte[]> policy = BatchFlushPolicy.anyOf(BatchFlushPolicy.maxItems(10),
+				BatchFlushPolicy.maxBytes(100, item -> item.length),
+				BatchFlushPolicy.maxWait(Duration.ofSeconds(1))
+		);
+		Assertions.assertEquals(10, policy.maxBatchItems());
+		Assertions.assertEquals(100, policy.maxBatchBytes());
+		Assertions.assertEquals(7, policy.estimateSize(new byte[7]));
+		Assertions.assertFalse(policy.shouldFlush(status(1, 1, 0)));
+		Assertions.assertTrue(policy.shouldFlush(status(10, 1, 0)));
+		Assertions.assertTrue(policy.shouldFlush(status(1, 100, 0)));
+		Assertions.assertTrue(policy.shouldFlush(status(1, 1, TimeUnit.SECONDS.toNanos(1))));
+		// The shortest interval wins
+		Assertions.assertEquals(TimeUnit.MILLISECONDS.toNanos(1), policy.checkIntervalNanos(status(1, 1, 0)));
+		Assertions.assertThrows(IllegalArgumentException.class, BatchFlushPolicy::anyOf);
+	}
+
+	@Test
+	public void testAdaptive() {
+		BatchFlushPolicy<Object> policy = BatchFlushPolicy.adaptive();
+		Assertions.assertFalse(policy.shouldFlush(status(0, 0, 0)));
+		// Items that already waited much longer than the latency are sent
+		Assertions.assertTrue(policy.shouldFlush(status(1, 0, TimeUnit.SECONDS.toNanos(1))));
+	}
+}
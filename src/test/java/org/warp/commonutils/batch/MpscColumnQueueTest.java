@@ -0,0 +1,84 @@
+package org.warp.commonutils.batch;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MpscColumnQueueTest {
+
+	private static final int PRODUCERS = 4;
+	private static final int ITEMS_PER_PRODUCER = 200000;
+	/**
+	 * Bigger than a chunk, so that the bulk offers span more than one chunk
+	 */
+	private static final int BULK_SIZE = MpscColumnQueue.CHUNK_SIZE + 44;
+
+	@Test
+	public void testManyProducers() throws InterruptedException {
+		var queue = new MpscColumnQueue<Integer>(ColumnarKeyType.LONG);
+		var start = new CountDownLatch(1);
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			int producer = p;
+			var thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				int i = 0;
+				while (i < ITEMS_PER_PRODUCER) {
+					// Alternate single and bulk offers
+					int count = Math.min((i / BULK_SIZE) % 2 == 0 ? 1 : BULK_SIZE, ITEMS_PER_PRODUCER - i);
+					if (count == 1) {
+						queue.offer((long) producer * ITEMS_PER_PRODUCER + i, null, i, i, producer);
+					} else {
+						long[] keys = new long[count];
+						Integer[] values = new Integer[count];
+						for (int j = 0; j < count; j++) {
+							keys[j] = (long) producer * ITEMS_PER_PRODUCER + i + j;
+							values[j] = i + j;
+						}
+						queue.offer(keys, values, i, producer);
+					}
+					i += count;
+				}
+			});
+			thread.start();
+			producers.add(thread);
+		}
+		start.countDown();
+
+		var keys = new LongArrayList();
+		int[] nextItem = new int[PRODUCERS];
+		int consumed = 0;
+		while (consumed < PRODUCERS * ITEMS_PER_PRODUCER) {
+			if (!queue.poll(keys)) {
+				Thread.onSpinWait();
+				continue;
+			}
+			long key = keys.getLong(keys.size() - 1);
+			int producer = (int) (key / ITEMS_PER_PRODUCER);
+			int sequence = (int) (key % ITEMS_PER_PRODUCER);
+			// The entries of a single producer are polled in the order in which they have been offered
+			Assertions.assertEquals(nextItem[producer], sequence);
+			Assertions.assertEquals(sequence, queue.polledValue());
+			Assertions.assertTrue(queue.polledTimestamp() <= sequence);
+			Assertions.assertEquals(producer, queue.polledAttachment());
+			nextItem[producer]++;
+			consumed++;
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		Assertions.assertTrue(queue.isEmpty());
+		Assertions.assertFalse(queue.poll(keys));
+		Assertions.assertEquals(PRODUCERS * ITEMS_PER_PRODUCER, keys.size());
+		for (int p = 0; p < PRODUCERS; p++) {
+			Assertions.assertEquals(ITEMS_PER_PRODUCER, nextItem[p]);
+		}
+	}
+}
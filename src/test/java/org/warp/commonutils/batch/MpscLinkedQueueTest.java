@@ -0,0 +1,62 @@
+package org.warp.commonutils.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class MpscLinkedQueueTest {
+
+	private static final int PRODUCERS = 4;
+	private static final int ITEMS_PER_PRODUCER = 200000;
+
+	@Test
+	public void testManyProducers() throws InterruptedException {
+		var queue = new MpscLinkedQueue<Integer>();
+		var start = new CountDownLatch(1);
+		List<Thread> producers = new ArrayList<>();
+		for (int p = 0; p < PRODUCERS; p++) {
+			int producer = p;
+			var thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				for (int i = 0; i < ITEMS_PER_PRODUCER; i++) {
+					queue.offer(producer * ITEMS_PER_PRODUCER + i, i, producer);
+				}
+			});
+			thread.start();
+			producers.add(thread);
+		}
+		start.countDown();
+
+		int[] nextItem = new int[PRODUCERS];
+		int consumed = 0;
+		while (consumed < PRODUCERS * ITEMS_PER_PRODUCER) {
+			Integer item = queue.poll();
+			if (item == null) {
+				Thread.onSpinWait();
+				continue;
+			}
+			int producer = item / ITEMS_PER_PRODUCER;
+			int sequence = item % ITEMS_PER_PRODUCER;
+			// The items of a single producer are polled in the order in which they have been offered
+			Assertions.assertEquals(nextItem[producer], sequence);
+			Assertions.assertEquals(sequence, queue.polledTimestamp());
+			Assertions.assertEquals(producer, queue.polledAttachment());
+			nextItem[producer]++;
+			consumed++;
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		Assertions.assertTrue(queue.isEmpty());
+		Assertions.assertNull(queue.poll());
+		for (int p = 0; p < PRODUCERS; p++) {
+			Assertions.assertEquals(ITEMS_PER_PRODUCER, nextItem[p]);
+		}
+	}
+}